@@ -0,0 +1,82 @@
+package flownetter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import flownetter.PaymentGraphGenerator.GraphType;
+
+/**
+ * Measures a full {@link Netter#net()} run. Every invocation gets a freshly
+ * loaded netter, so each measurement is a single shot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms16g", "-Xmx16g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class NetterBenchmark {
+
+	@Param({ "RANDOM_SPARSE", "SCALE_FREE", "DENSE_CYCLIC", "SMALL_COMPONENTS" })
+	private GraphType graph;
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	private int flows;
+
+	private List<Flow> input;
+
+	private Netter netter;
+
+	/**
+	 * Reports the heap retained by a loaded netter next to the timings
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long loadedBytes;
+	}
+
+	@Setup(Level.Trial)
+	public void generate() {
+		input = new PaymentGraphGenerator(42).generate(graph, flows);
+	}
+
+	@Setup(Level.Invocation)
+	public void load(Footprint footprint) {
+		netter = null;
+		long before = usedHeap();
+
+		netter = new Netter();
+		input.forEach(netter::add);
+
+		// Moves the added flows into the collection, outside the measurement
+		netter.getFlowCollection();
+
+		footprint.loadedBytes = usedHeap() - before;
+	}
+
+	@Benchmark
+	public List<Flow> net() {
+		return netter.net();
+	}
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,132 @@
+package flownetter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic payment graphs for the benchmarks. The same type,
+ * size and seed always give the same flows.
+ */
+public class PaymentGraphGenerator {
+
+	public enum GraphType {
+		/** Uniformly random flows, about four per entity */
+		RANDOM_SPARSE,
+
+		/** Flows attach preferentially to entities that already have many, giving a few large hubs */
+		SCALE_FREE,
+
+		/** Few entities with many flows between them, full of cycles */
+		DENSE_CYCLIC,
+
+		/** Many independent clusters of eight entities */
+		SMALL_COMPONENTS
+	}
+
+	private static final long MAX_VALUE = 1_000_000;
+
+	private static final int COMPONENT_SIZE = 8;
+
+	private final Random random;
+
+	public PaymentGraphGenerator(long seed) {
+		random = new Random(seed);
+	}
+
+	public List<Flow> generate(GraphType type, int flowCount) {
+		switch (type) {
+		case RANDOM_SPARSE:
+			return randomSparse(flowCount);
+		case SCALE_FREE:
+			return scaleFree(flowCount);
+		case DENSE_CYCLIC:
+			return denseCyclic(flowCount);
+		case SMALL_COMPONENTS:
+			return smallComponents(flowCount);
+		default:
+			throw new IllegalArgumentException("Unknown graph type " + type);
+		}
+	}
+
+	private List<Flow> randomSparse(int flowCount) {
+		int entities = Math.max(2, flowCount / 4);
+		List<Flow> flows = new ArrayList<>(flowCount);
+
+		while (flows.size() < flowCount) {
+			addFlow(flows, random.nextInt(entities), random.nextInt(entities));
+		}
+
+		return flows;
+	}
+
+	/**
+	 * Each endpoint is either a uniformly random entity or an endpoint of an
+	 * earlier flow, which makes the degree distribution follow a power law.
+	 */
+	private List<Flow> scaleFree(int flowCount) {
+		int entities = Math.max(2, flowCount / 4);
+		int[] endpoints = new int[flowCount * 2];
+		int endpointCount = 0;
+
+		List<Flow> flows = new ArrayList<>(flowCount);
+
+		while (flows.size() < flowCount) {
+			int source = pickPreferential(endpoints, endpointCount, entities);
+			int sink = pickPreferential(endpoints, endpointCount, entities);
+
+			if (addFlow(flows, source, sink)) {
+				endpoints[endpointCount++] = source;
+				endpoints[endpointCount++] = sink;
+			}
+		}
+
+		return flows;
+	}
+
+	private int pickPreferential(int[] endpoints, int endpointCount, int entities) {
+		if (endpointCount == 0 || random.nextInt(4) == 0) {
+			return random.nextInt(entities);
+		}
+		return endpoints[random.nextInt(endpointCount)];
+	}
+
+	private List<Flow> denseCyclic(int flowCount) {
+		int entities = Math.max(3, (int) Math.sqrt(flowCount));
+		List<Flow> flows = new ArrayList<>(flowCount);
+
+		while (flows.size() < flowCount) {
+			addFlow(flows, random.nextInt(entities), random.nextInt(entities));
+		}
+
+		return flows;
+	}
+
+	private List<Flow> smallComponents(int flowCount) {
+		int flowsPerComponent = COMPONENT_SIZE * 2;
+		List<Flow> flows = new ArrayList<>(flowCount);
+
+		for (int component = 0; flows.size() < flowCount; component++) {
+			int first = component * COMPONENT_SIZE;
+
+			for (int i = 0; i < flowsPerComponent && flows.size() < flowCount; ) {
+				if (addFlow(flows,
+						first + random.nextInt(COMPONENT_SIZE),
+						first + random.nextInt(COMPONENT_SIZE))) {
+					i++;
+				}
+			}
+		}
+
+		return flows;
+	}
+
+	private boolean addFlow(List<Flow> flows, int source, int sink) {
+		if (source == sink) {
+			return false;
+		}
+
+		flows.add(new Flow("e" + source, "e" + sink, 1 + (long) (random.nextDouble() * MAX_VALUE)));
+		return true;
+	}
+}
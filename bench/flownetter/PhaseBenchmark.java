@@ -0,0 +1,83 @@
+package flownetter;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import flownetter.PaymentGraphGenerator.GraphType;
+
+/**
+ * Measures a single pass of one phase of {@link HeuristicNettingStrategy}
+ * over every entity of a freshly loaded collection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms16g", "-Xmx16g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class PhaseBenchmark {
+
+	// The phases of a round
+	@Param({ "AGGREGATE_SAME_SOURCE_AND_SINK", "NET_BETWEEN_PARTIES", "REMOVE_CIRCULAR_FLOW", "FIND_NET_ZERO_STRING" })
+	private NettingPhase phase;
+
+	@Param({ "RANDOM_SPARSE", "SCALE_FREE", "DENSE_CYCLIC", "SMALL_COMPONENTS" })
+	private GraphType graph;
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	private int flows;
+
+	private List<Flow> input;
+
+	private HeuristicNettingStrategy strategy;
+
+	private BitSet workList;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		input = new PaymentGraphGenerator(42).generate(graph, flows);
+	}
+
+	@Setup(Level.Invocation)
+	public void load() {
+		FlowCollection flowCollection = new FlowCollection();
+		input.forEach(flowCollection::add);
+
+		strategy = new HeuristicNettingStrategy();
+		workList = strategy.prepare(flowCollection);
+	}
+
+	@Benchmark
+	public void runPhase() {
+		switch (phase) {
+		case AGGREGATE_SAME_SOURCE_AND_SINK:
+			strategy.aggregateSameSourceAndSink(workList);
+			break;
+		case NET_BETWEEN_PARTIES:
+			strategy.netBetweenParties(workList);
+			break;
+		case REMOVE_CIRCULAR_FLOW:
+			strategy.removeCircularFlow(workList);
+			break;
+		case FIND_NET_ZERO_STRING:
+			strategy.findNetZeroString(workList, new BitSet());
+			break;
+		default:
+			throw new IllegalArgumentException("Not a phase of a round: " + phase);
+		}
+	}
+}
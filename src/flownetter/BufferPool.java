@@ -0,0 +1,47 @@
+package flownetter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps direct buffers of a fixed size for reuse, since allocating and
+ * freeing direct memory is slow. At most maxRetained buffers are kept,
+ * any more released are left to the garbage collector.
+ */
+class BufferPool {
+
+	private final int bufferSize;
+	private final int maxRetained;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger retained = new AtomicInteger();
+
+	BufferPool(int bufferSize, int maxRetained) {
+		this.bufferSize = bufferSize;
+		this.maxRetained = maxRetained;
+	}
+
+	/**
+	 * Returns a cleared buffer, reusing a released one if possible
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+
+		retained.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	void release(ByteBuffer buffer) {
+		if (retained.incrementAndGet() <= maxRetained) {
+			buffers.offer(buffer);
+		} else {
+			retained.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package flownetter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the netted flows of components netted by a
+ * {@link ParallelNetter}, so that components identical to one netted
+ * before are not netted again.
+ *
+ * A component is identified by its flows sorted by source, sink and
+ * value, so the order they were added in does not matter. The least
+ * recently used components are evicted once the cache holds more than
+ * the given number of flows, counting both the flows of each component
+ * and its netted flows.
+ *
+ * May be shared between parallel netters, also concurrently, as long as
+ * they net components the same way.
+ */
+public class ComponentCache {
+
+	private static final Comparator<Flow> CANONICAL_ORDER = Comparator
+		.comparing(Flow::getSource)
+		.thenComparing(Flow::getSink)
+		.thenComparingLong(Flow::getValue);
+
+	private final int maxFlows;
+
+	private final LinkedHashMap<Key, List<Flow>> results = new LinkedHashMap<>(16, 0.75f, true);
+
+	private int flowCount;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param maxFlows the largest number of flows to hold
+	 */
+	public ComponentCache(int maxFlows) {
+		this.maxFlows = maxFlows;
+	}
+
+	/**
+	 * Returns the number of components found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of components not found in the cache
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the key identifying the component
+	 */
+	static Key keyOf(List<Flow> component) {
+		Flow[] flows = component.toArray(new Flow[0]);
+		Arrays.sort(flows, CANONICAL_ORDER);
+		return new Key(flows);
+	}
+
+	/**
+	 * Returns the netted flows of the component, or null if not cached
+	 */
+	synchronized List<Flow> get(Key key) {
+		List<Flow> result = results.get(key);
+
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+
+		return result;
+	}
+
+	synchronized void put(Key key, List<Flow> result) {
+		int size = key.flows.length + result.size();
+
+		if (size > maxFlows || results.containsKey(key)) {
+			return;
+		}
+
+		results.put(key, Collections.unmodifiableList(result));
+		flowCount += size;
+
+		Iterator<Map.Entry<Key, List<Flow>>> eldest = results.entrySet().iterator();
+
+		while (flowCount > maxFlows) {
+			Map.Entry<Key, List<Flow>> entry = eldest.next();
+			flowCount -= entry.getKey().flows.length + entry.getValue().size();
+			eldest.remove();
+		}
+	}
+
+	static final class Key {
+
+		private final Flow[] flows;
+		private final int hash;
+
+		private Key(Flow[] flows) {
+			this.flows = flows;
+
+			int h = 1;
+			for (Flow flow : flows) {
+				h = 31 * h + flow.getSource().hashCode();
+				h = 31 * h + flow.getSink().hashCode();
+				h = 31 * h + Long.hashCode(flow.getValue());
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) other;
+
+			if (key.hash != hash || key.flows.length != flows.length) {
+				return false;
+			}
+
+			for (int i = 0; i < flows.length; i++) {
+				Flow a = flows[i];
+				Flow b = key.flows[i];
+
+				if (a.getValue() != b.getValue() ||
+					!a.getSource().equals(b.getSource()) ||
+					!a.getSink().equals(b.getSink())) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package flownetter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits flows into weakly connected components. Netting never moves value
+ * between components, so each one can be netted on its own.
+ */
+class ComponentSplitter {
+
+	private ComponentSplitter() {
+	}
+
+	/**
+	 * Returns the flows grouped by component. Components are ordered by their
+	 * first flow, and flows keep their order within a component.
+	 */
+	static List<List<Flow>> split(List<Flow> flows) {
+		EntityDictionary entities = new EntityDictionary();
+		int[] sources = new int[flows.size()];
+		int[] sinks = new int[flows.size()];
+
+		for (int i = 0; i < flows.size(); i++) {
+			sources[i] = entities.intern(flows.get(i).getSource());
+			sinks[i] = entities.intern(flows.get(i).getSink());
+		}
+
+		int[] parents = new int[entities.size()];
+		for (int entity = 0; entity < parents.length; entity++) {
+			parents[entity] = entity;
+		}
+
+		for (int i = 0; i < flows.size(); i++) {
+			union(parents, sources[i], sinks[i]);
+		}
+
+		// Component index by root entity, -1 until the first flow is seen
+		int[] componentByRoot = new int[parents.length];
+		Arrays.fill(componentByRoot, -1);
+
+		List<List<Flow>> components = new ArrayList<>();
+
+		for (int i = 0; i < flows.size(); i++) {
+			int root = find(parents, sources[i]);
+
+			if (componentByRoot[root] == -1) {
+				componentByRoot[root] = components.size();
+				components.add(new ArrayList<>());
+			}
+
+			components.get(componentByRoot[root]).add(flows.get(i));
+		}
+
+		return components;
+	}
+
+	private static int find(int[] parents, int entity) {
+		while (parents[entity] != entity) {
+			// Path halving
+			parents[entity] = parents[parents[entity]];
+			entity = parents[entity];
+		}
+		return entity;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		int rootA = find(parents, a);
+		int rootB = find(parents, b);
+
+		if (rootA != rootB) {
+			parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+		}
+	}
+}
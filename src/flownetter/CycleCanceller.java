@@ -0,0 +1,721 @@
+package flownetter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds circular flows to cancel.
+ *
+ * The graph is first split into strongly connected components, since a
+ * cycle can never leave the component it starts in. A depth bounded search
+ * is then run inside each component, keeping only the best cycle seen so
+ * far rather than collecting every cycle.
+ *
+ * The best cycle is the one for which the most flows can be removed, i.e.
+ * the one with the most flows having the minimal value. Ties are broken
+ * on the smallest minimal value, which leaves the larger flows for other
+ * cycles, and then on the order the cycles were found in.
+ *
+ * The best cycle through each entity is kept as a candidate, so that a
+ * batch of cycles not sharing any flows can be cancelled at once. For a
+ * batch every entity is searched from, with fewer steps each, and the
+ * search is repeated without the flows of the cycles picked so far.
+ *
+ * The entities of each component are searched from in ascending order,
+ * each allowed the same number of steps, until the steps taken add up to
+ * those allowed for the component. At least MIN_STARTS entities are
+ * searched from, so that a large component is searched in parallel even
+ * when the first search takes all the steps. The searches do not depend
+ * on each other, so the next block of entities of every component is
+ * searched at once in fork join tasks, and the results are taken in order
+ * as if searched one at a time. Blocks take as many entities as the steps
+ * left cover at the average so far, so that little is searched in vain,
+ * and the cycles found do not depend on the number of threads.
+ *
+ * Netting never makes an entity reachable from another entity it could
+ * not reach before, so an entity found outside any cycle stays that way.
+ * Later searches are therefore limited to the entities that were part of
+ * a strongly connected component in the previous search.
+ */
+class CycleCanceller {
+
+	static final int DEFAULT_MAX_CYCLE_LENGTH = 64;
+	static final int DEFAULT_MAX_SEARCH_STEPS = 100_000;
+
+	// Entities searched from in every component, even if the steps run out
+	private static final int MIN_STARTS = 4;
+
+	// Most members of a component searched from in the same pass
+	private static final int MAX_BLOCK_STARTS = 256;
+
+	// Estimated steps of the searches run by one task
+	private static final long TASK_STEPS = 1 << 14;
+
+	// Most steps from each entity when searching for disjoint cycles, where
+	// every entity is searched from, again for each pass
+	private static final int BATCH_START_STEPS = 1000;
+
+	private static final BitSet NO_EDGES = new BitSet();
+
+	private final FlowCollection flowCollection;
+
+	private int maxCycleLength = DEFAULT_MAX_CYCLE_LENGTH;
+	private int maxSearchSteps = DEFAULT_MAX_SEARCH_STEPS;
+
+	// Snapshot of the graph in compressed sparse row form. Node i is entity
+	// nodeEntities[i] and its sinks are targets[offsets[i]] .. targets[offsets[i + 1] - 1].
+	private int nodeCount;
+	private int[] nodeEntities;
+	private int[] offsets;
+	private int[] targets;
+	private int[] flows;
+
+	private int[] components;
+	private int[] componentSizes;
+
+	// Entities which may still be part of a cycle, null if not yet known
+	private BitSet cyclic;
+
+	// Edges left out of the search, those of cycles already picked
+	private BitSet excludedEdges = NO_EDGES;
+
+	// Most steps of the search from a single entity
+	private int startSteps;
+
+	private List<Cycle> candidates = new ArrayList<>();
+
+	CycleCanceller(FlowCollection flowCollection) {
+		this.flowCollection = flowCollection;
+	}
+
+	/**
+	 * Limits the search to the entities which can both reach and be reached
+	 * from one of the given entities, i.e. those which can be part of a
+	 * cycle through them. Used to look for cycles created by new flows
+	 * only, leaving any others alone.
+	 */
+	void limitTo(BitSet entities) {
+		BitSet scope = reach(entities, true);
+		scope.and(reach(entities, false));
+		cyclic = scope;
+	}
+
+	/**
+	 * Returns the entities which may still be part of a cycle, or null if
+	 * no search has been made, in which case any entity may be
+	 */
+	BitSet getCyclic() {
+		return cyclic == null ? null : (BitSet) cyclic.clone();
+	}
+
+	/**
+	 * Returns true if a search may find cycles, given the entities with
+	 * flows changed since the last search. If none of them were part of a
+	 * cycle then, the last search would find the same result again.
+	 */
+	boolean hasCycles(BitSet changed) {
+		return cyclic == null || cyclic.intersects(changed);
+	}
+
+	/**
+	 * Sets the maximum number of flows in a cycle
+	 */
+	void setMaxCycleLength(int maxCycleLength) {
+		this.maxCycleLength = maxCycleLength;
+	}
+
+	/**
+	 * Sets the maximum number of flows followed when searching for cycles
+	 * from a single entity, and in total inside a single strongly connected
+	 * component unless fewer than MIN_STARTS entities were searched from.
+	 */
+	void setMaxSearchSteps(int maxSearchSteps) {
+		this.maxSearchSteps = maxSearchSteps;
+	}
+
+	/**
+	 * Returns the flow ids of the best cycle to cancel, or an empty array if
+	 * there are no circular flows. Assumes there is at most one flow
+	 * between the same source and sink.
+	 */
+	int[] findBestCycle() {
+		snapshot();
+		findCandidates(false);
+
+		Cycle best = null;
+
+		for (Cycle candidate : candidates) {
+			if (best == null || candidate.compareTo(best) < 0) {
+				best = candidate;
+			}
+		}
+
+		return best == null ? new int[0] : toFlows(best);
+	}
+
+	/**
+	 * Returns a set of cycles to cancel where no two cycles share a flow,
+	 * picking the best cycles first.
+	 *
+	 * Every entity is searched from with BATCH_START_STEPS of its own, at
+	 * most the maximum search steps, and the search is repeated on the
+	 * same snapshot with the flows of the cycles picked so far left out,
+	 * until it finds no more cycles. A cycle passed over for a better one
+	 * sharing a flow is thus replaced by another one, if there is any,
+	 * rather than left for the next round.
+	 */
+	List<int[]> findDisjointCycles() {
+		snapshot();
+
+		List<int[]> cycles = new ArrayList<>();
+		BitSet usedEdges = new BitSet(flows.length);
+		excludedEdges = usedEdges;
+
+		try {
+			int picked;
+
+			do {
+				picked = cycles.size();
+				findCandidates(true);
+
+				// Stable sort, so that equally good cycles keep their search order
+				Collections.sort(candidates);
+
+				for (Cycle candidate : candidates) {
+					if (candidate.sharesEdge(usedEdges)) {
+						continue;
+					}
+
+					for (int edge : candidate.edges) {
+						usedEdges.set(edge);
+					}
+
+					cycles.add(toFlows(candidate));
+				}
+			} while (cycles.size() > picked);
+		} finally {
+			excludedEdges = NO_EDGES;
+		}
+
+		return cycles;
+	}
+
+	/**
+	 * Builds the graph and finds its strongly connected components
+	 */
+	private void snapshot() {
+		buildGraph();
+		findStronglyConnectedComponents();
+
+		cyclic = new BitSet();
+		for (int node = 0; node < nodeCount; node++) {
+			if (components[node] >= 0) {
+				cyclic.set(nodeEntities[node]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the best cycle through each entity searched from, leaving out
+	 * the excluded edges. In batches, every entity is searched from with
+	 * steps of its own, otherwise the steps allowed are shared by all
+	 * entities of a component.
+	 */
+	private void findCandidates(boolean batch) {
+		startSteps = batch ? Math.min(maxSearchSteps, BATCH_START_STEPS) : maxSearchSteps;
+
+		// The nodes of each component, in ascending order
+		IntList[] members = new IntList[componentSizes.length];
+		for (int node = 0; node < nodeCount; node++) {
+			int component = components[node];
+
+			if (component >= 0) {
+				if (members[component] == null) {
+					members[component] = new IntList(componentSizes[component]);
+				}
+				members[component].add(node);
+			}
+		}
+
+		// Next member to search from, steps allowed, steps left and starts
+		// searched per pass, by component
+		int[] next = new int[members.length];
+		long[] stepsAllowed = new long[members.length];
+		long[] stepsLeft = new long[members.length];
+		int[] blockSizes = new int[members.length];
+		Arrays.fill(blockSizes, MIN_STARTS);
+
+		for (int component = 0; component < members.length; component++) {
+			stepsAllowed[component] = batch ?
+				(long) startSteps * componentSizes[component] : maxSearchSteps;
+			stepsLeft[component] = stepsAllowed[component];
+		}
+
+		IntList active = new IntList(members.length);
+		if (maxSearchSteps > 0) {
+			for (int component = 0; component < members.length; component++) {
+				active.add(component);
+			}
+		}
+
+		candidates.clear();
+
+		while (!active.isEmpty()) {
+			IntList starts = new IntList();
+
+			for (int i = 0; i < active.size(); i++) {
+				int component = active.get(i);
+				int count = Math.min(blockSizes[component], componentSizes[component] - next[component]);
+
+				for (int k = 0; k < count; k++) {
+					starts.add(members[component].get(next[component] + k));
+				}
+			}
+
+			long[] steps = new long[starts.size()];
+			Cycle[] cycles = search(starts, steps);
+
+			// Takes the results in order until the steps of the component run
+			// out, dropping those of the rest of the block, so the result is
+			// the same as searching one start at a time
+			IntList stillActive = new IntList();
+			int index = 0;
+
+			for (int i = 0; i < active.size(); i++) {
+				int component = active.get(i);
+				int count = Math.min(blockSizes[component], componentSizes[component] - next[component]);
+				int searched = 0;
+
+				while (searched < count && (next[component] + searched < MIN_STARTS || stepsLeft[component] > 0)) {
+					Cycle cycle = cycles[index + searched];
+
+					if (cycle != null) {
+						candidates.add(cycle);
+					}
+					stepsLeft[component] -= steps[index + searched];
+					searched++;
+				}
+
+				index += count;
+				next[component] += searched;
+
+				if (next[component] < componentSizes[component] && stepsLeft[component] > 0) {
+					// As many starts as the steps left cover at the average so far
+					long average = (stepsAllowed[component] - stepsLeft[component]) / next[component] + 1;
+					blockSizes[component] = (int) Math.max(1, Math.min(MAX_BLOCK_STARTS, stepsLeft[component] / average));
+
+					stillActive.add(component);
+				}
+			}
+
+			active = stillActive;
+		}
+
+		candidates.sort(Comparator.comparingInt(cycle -> cycle.start));
+	}
+
+	/**
+	 * Searches from each start in fork join tasks each taking a range of
+	 * starts. Returns the best cycle from each start, or null if none was
+	 * found, and sets the steps taken from each.
+	 */
+	private Cycle[] search(IntList starts, long[] steps) {
+		Cycle[] cycles = new Cycle[starts.size()];
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+		for (int first = 0; first < starts.size(); ) {
+			int last = first;
+			long work = 0;
+
+			// A search rarely follows more flows than the square of the size
+			// of its component, far fewer than allowed for small ones
+			while (last < starts.size() && work < TASK_STEPS) {
+				long size = componentSizes[components[starts.get(last)]];
+				work += Math.min(startSteps, size * size);
+				last++;
+			}
+
+			int from = first;
+			int to = last;
+			tasks.add(ForkJoinTask.adapt(() -> new Search().search(starts, from, to, cycles, steps)));
+
+			first = last;
+		}
+
+		if (tasks.size() == 1) {
+			tasks.get(0).invoke();
+		} else {
+			ForkJoinTask.invokeAll(tasks);
+		}
+
+		return cycles;
+	}
+
+	private int[] toFlows(Cycle cycle) {
+		int[] cycleFlows = new int[cycle.edges.length];
+
+		for (int i = 0; i < cycleFlows.length; i++) {
+			cycleFlows[i] = flows[cycle.edges[i]];
+		}
+
+		return cycleFlows;
+	}
+
+	/**
+	 * Builds the graph of the entities which may be part of a cycle and
+	 * have outgoing flows, numbered in ascending order of entity id
+	 */
+	private void buildGraph() {
+		IntList candidates = new IntList();
+
+		if (cyclic == null) {
+			candidates.addAll(flowCollection.getSources());
+		} else {
+			for (int entity = cyclic.nextSetBit(0); entity >= 0; entity = cyclic.nextSetBit(entity + 1)) {
+				if (flowCollection.hasSinks(entity)) {
+					candidates.add(entity);
+				}
+			}
+		}
+
+		nodeEntities = candidates.toArray();
+		nodeCount = nodeEntities.length;
+		offsets = new int[nodeCount + 1];
+
+		int[][] sinks = new int[nodeCount][];
+		int edgeCount = 0;
+
+		for (int node = 0; node < nodeCount; node++) {
+			sinks[node] = getSinkNodes(nodeEntities[node]);
+			edgeCount += sinks[node].length;
+		}
+
+		targets = new int[edgeCount];
+		flows = new int[edgeCount];
+
+		int position = 0;
+
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node] = position;
+
+			for (int sink : sinks[node]) {
+				targets[position] = sink;
+				flows[position] = flowCollection.getFlow(nodeEntities[node], nodeEntities[sink]);
+				position++;
+			}
+		}
+
+		offsets[nodeCount] = position;
+	}
+
+	/**
+	 * Returns the nodes of the sinks of the entity which are part of the
+	 * graph, in ascending order
+	 */
+	private int[] getSinkNodes(int source) {
+		int[] sinks = flowCollection.getSinks(source);
+
+		int count = 0;
+		for (int sink : sinks) {
+			int node = Arrays.binarySearch(nodeEntities, sink);
+			if (node >= 0) {
+				sinks[count++] = node;
+			}
+		}
+
+		int[] nodes = Arrays.copyOf(sinks, count);
+		Arrays.sort(nodes);
+		return nodes;
+	}
+
+	/**
+	 * Returns the given entities and all entities reachable from them,
+	 * following flows forwards or backwards
+	 */
+	private BitSet reach(BitSet entities, boolean forwards) {
+		BitSet reached = (BitSet) entities.clone();
+		IntList queue = new IntList();
+
+		for (int entity = entities.nextSetBit(0); entity >= 0; entity = entities.nextSetBit(entity + 1)) {
+			queue.add(entity);
+		}
+
+		for (int i = 0; i < queue.size(); i++) {
+			int entity = queue.get(i);
+			int[] neighbours = forwards ? flowCollection.getSinks(entity) : flowCollection.getSources(entity);
+
+			for (int neighbour : neighbours) {
+				if (!reached.get(neighbour)) {
+					reached.set(neighbour);
+					queue.add(neighbour);
+				}
+			}
+		}
+
+		return reached;
+	}
+
+	/**
+	 * Iterative version of Tarjan's algorithm. Entities which cannot be
+	 * part of a cycle are left with component -1.
+	 */
+	private void findStronglyConnectedComponents() {
+		int[] index = new int[nodeCount];
+		int[] lowLink = new int[nodeCount];
+		boolean[] onStack = new boolean[nodeCount];
+		int[] stack = new int[nodeCount];
+		int[] callNodes = new int[nodeCount];
+		int[] callEdges = new int[nodeCount];
+
+		Arrays.fill(index, -1);
+		components = new int[nodeCount];
+		Arrays.fill(components, -1);
+
+		int[] sizes = new int[16];
+		int componentCount = 0;
+		int counter = 0;
+		int stackSize = 0;
+
+		for (int root = 0; root < nodeCount; root++) {
+			if (index[root] != -1 || offsets[root] == offsets[root + 1]) {
+				continue;
+			}
+
+			int depth = 0;
+
+			index[root] = lowLink[root] = counter++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			callNodes[depth] = root;
+			callEdges[depth] = offsets[root];
+			depth++;
+
+			while (depth > 0) {
+				int node = callNodes[depth - 1];
+				int edge = callEdges[depth - 1];
+
+				if (edge < offsets[node + 1]) {
+					callEdges[depth - 1]++;
+					int sink = targets[edge];
+
+					if (index[sink] == -1) {
+						index[sink] = lowLink[sink] = counter++;
+						stack[stackSize++] = sink;
+						onStack[sink] = true;
+						callNodes[depth] = sink;
+						callEdges[depth] = offsets[sink];
+						depth++;
+					} else if (onStack[sink]) {
+						lowLink[node] = Math.min(lowLink[node], index[sink]);
+					}
+					continue;
+				}
+
+				depth--;
+
+				if (depth > 0) {
+					int parent = callNodes[depth - 1];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+				}
+
+				if (lowLink[node] != index[node]) {
+					continue;
+				}
+
+				// Node is the root of a component, pop it off the stack
+				int start = stackSize;
+				do {
+					start--;
+					onStack[stack[start]] = false;
+				} while (stack[start] != node);
+
+				int size = stackSize - start;
+
+				if (size > 1 || hasSelfLoop(node)) {
+					if (componentCount == sizes.length) {
+						sizes = Arrays.copyOf(sizes, componentCount * 2);
+					}
+					for (int i = start; i < stackSize; i++) {
+						components[stack[i]] = componentCount;
+					}
+					sizes[componentCount++] = size;
+				}
+
+				stackSize = start;
+			}
+		}
+
+		componentSizes = Arrays.copyOf(sizes, componentCount);
+	}
+
+	private boolean hasSelfLoop(int node) {
+		for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+			if (targets[edge] == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * State of a search for cycles, one per task. The path is kept in
+	 * arrays and a bitset of the nodes on it, which is clear again after
+	 * each search so it is reused for the next start.
+	 */
+	private class Search {
+
+		private final int[] pathNodes = new int[maxCycleLength];
+		private final int[] pathEdges = new int[maxCycleLength];
+		private final BitSet onPath = new BitSet(nodeCount);
+
+		// Best cycle through the entity currently searched, as indexes into flows
+		private final int[] bestCycle = new int[maxCycleLength];
+		private int bestCycleLength;
+		private long bestMinimalFlows;
+		private long bestMinValue;
+
+		/**
+		 * Sets the best cycle through each of the starts from .. to - 1, and
+		 * the steps taken from each
+		 */
+		void search(IntList starts, int from, int to, Cycle[] cycles, long[] steps) {
+			for (int i = from; i < to; i++) {
+				int start = starts.get(i);
+
+				bestCycleLength = 0;
+				bestMinimalFlows = 0;
+				bestMinValue = 0;
+
+				steps[i] = searchCycles(start, startSteps);
+
+				if (bestCycleLength > 0) {
+					cycles[i] = new Cycle(start,
+						Arrays.copyOf(bestCycle, bestCycleLength), bestMinimalFlows, bestMinValue);
+				}
+			}
+		}
+
+		/**
+		 * Searches for cycles through the start entity, only visiting entities
+		 * of the same component with a higher id so that each cycle is found
+		 * once. Returns the number of flows followed.
+		 */
+		private long searchCycles(int start, long maxSteps) {
+			int component = components[start];
+
+			long steps = 0;
+			int depth = 1;
+			pathNodes[0] = start;
+			pathEdges[0] = offsets[start];
+			onPath.set(start);
+
+			while (depth > 0) {
+				int node = pathNodes[depth - 1];
+				int edge = pathEdges[depth - 1];
+
+				if (edge == offsets[node + 1] || steps >= maxSteps) {
+					onPath.clear(node);
+					depth--;
+					continue;
+				}
+
+				pathEdges[depth - 1]++;
+				steps++;
+
+				if (excludedEdges.get(edge)) {
+					continue;
+				}
+
+				int sink = targets[edge];
+
+				if (sink == start) {
+					evaluateCycle(depth);
+				} else if (depth < maxCycleLength
+						&& components[sink] == component
+						&& sink > start
+						&& !onPath.get(sink)) {
+
+					onPath.set(sink);
+					pathNodes[depth] = sink;
+					pathEdges[depth] = offsets[sink];
+					depth++;
+				}
+			}
+
+			return steps;
+		}
+
+		/**
+		 * Compares the cycle on the current path with the best one through the
+		 * start entity so far. The flow taken from each entity on the path is
+		 * the one before its current position.
+		 */
+		private void evaluateCycle(int length) {
+			long minValue = Long.MAX_VALUE;
+			long minimalFlows = 0;
+
+			for (int i = 0; i < length; i++) {
+				long value = flowCollection.getValue(flows[pathEdges[i] - 1]);
+
+				if (value < minValue) {
+					minValue = value;
+					minimalFlows = 1;
+				} else if (value == minValue) {
+					minimalFlows++;
+				}
+			}
+
+			if (minimalFlows < bestMinimalFlows ||
+				(minimalFlows == bestMinimalFlows && minValue >= bestMinValue)) {
+				return;
+			}
+
+			for (int i = 0; i < length; i++) {
+				bestCycle[i] = pathEdges[i] - 1;
+			}
+
+			bestCycleLength = length;
+			bestMinimalFlows = minimalFlows;
+			bestMinValue = minValue;
+		}
+	}
+
+	private static class Cycle implements Comparable<Cycle> {
+		private final int start;
+		private final int[] edges;
+		private final long minimalFlows;
+		private final long minValue;
+
+		Cycle(int start, int[] edges, long minimalFlows, long minValue) {
+			this.start = start;
+			this.edges = edges;
+			this.minimalFlows = minimalFlows;
+			this.minValue = minValue;
+		}
+
+		boolean sharesEdge(BitSet usedEdges) {
+			for (int edge : edges) {
+				if (usedEdges.get(edge)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Orders better cycles first
+		 */
+		@Override
+		public int compareTo(Cycle other) {
+			if (minimalFlows != other.minimalFlows) {
+				return minimalFlows > other.minimalFlows ? -1 : 1;
+			}
+			return Long.compare(minValue, other.minValue);
+		}
+	}
+}
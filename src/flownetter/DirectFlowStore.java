@@ -0,0 +1,117 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Keeps the flows in direct byte buffers outside the Java heap.
+ *
+ * The slots are split into fixed size pages, so growing never copies the
+ * flows already stored and the number of flows is not limited by the
+ * maximum size of a single buffer.
+ *
+ * Restored from a snapshot, the pages are the pages of the file mapped
+ * copy on write, so nothing is read until used and changes stay private.
+ */
+class DirectFlowStore extends FlowStore {
+
+	private static final int PAGE_SHIFT = SnapshotFormat.PAGE_SHIFT;
+	private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+	private static final int PAGE_BYTES = SLOT_BYTES << PAGE_SHIFT;
+
+	// Grows ahead of the pages allocated, which are only the first pageCount
+	private ByteBuffer[] pages = new ByteBuffer[0];
+	private int pageCount;
+
+	@Override
+	int getSource(int slot) {
+		return page(slot).getInt(offset(slot));
+	}
+
+	@Override
+	int getSink(int slot) {
+		return page(slot).getInt(offset(slot) + SINK_OFFSET);
+	}
+
+	@Override
+	long getValue(int slot) {
+		return page(slot).getLong(offset(slot) + VALUE_OFFSET);
+	}
+
+	@Override
+	void set(int slot, int source, int sink, long value) {
+		ByteBuffer page = page(slot);
+		int offset = offset(slot);
+
+		page.putInt(offset, source);
+		page.putInt(offset + SINK_OFFSET, sink);
+		page.putLong(offset + VALUE_OFFSET, value);
+	}
+
+	@Override
+	void setValue(int slot, long value) {
+		page(slot).putLong(offset(slot) + VALUE_OFFSET, value);
+	}
+
+	@Override
+	int getNext(int slot) {
+		return page(slot).getInt(offset(slot) + NEXT_OFFSET);
+	}
+
+	@Override
+	void setNext(int slot, int next) {
+		page(slot).putInt(offset(slot) + NEXT_OFFSET, next);
+	}
+
+	@Override
+	int getPrevious(int slot) {
+		return page(slot).getInt(offset(slot) + PREVIOUS_OFFSET);
+	}
+
+	@Override
+	void setPrevious(int slot, int previous) {
+		page(slot).putInt(offset(slot) + PREVIOUS_OFFSET, previous);
+	}
+
+	@Override
+	void ensureCapacity(int capacity) {
+		int needed = (int) (((long) capacity + PAGE_MASK) >>> PAGE_SHIFT);
+
+		if (needed <= pageCount) {
+			return;
+		}
+
+		if (needed > pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(needed, pages.length * 2));
+		}
+
+		// Only the pages needed take native memory
+		for (; pageCount < needed; pageCount++) {
+			pages[pageCount] = ByteBuffer.allocateDirect(PAGE_BYTES)
+				.order(ByteOrder.nativeOrder());
+		}
+	}
+
+	@Override
+	void read(FileChannel channel, long position, int slots) throws IOException {
+		// Mapped pages keep the byte order of the file
+		pages = new ByteBuffer[SnapshotFormat.pages(slots)];
+		pageCount = pages.length;
+
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = channel.map(
+				FileChannel.MapMode.PRIVATE, position + (long) i * PAGE_BYTES, PAGE_BYTES);
+		}
+	}
+
+	private ByteBuffer page(int slot) {
+		return pages[slot >>> PAGE_SHIFT];
+	}
+
+	private static int offset(int slot) {
+		return (slot & PAGE_MASK) * SLOT_BYTES;
+	}
+}
@@ -0,0 +1,96 @@
+package flownetter;
+
+import java.util.Arrays;
+
+/**
+ * Maps entity names to dense integer ids, starting at 0.
+ *
+ * Names are hashed once when a flow enters the collection, after which
+ * all netting is done on the ids.
+ */
+public class EntityDictionary {
+
+	private static final int NO_ID = -1;
+
+	private String[] names = new String[16];
+	private int[] table = newTable(32);
+	private int size;
+
+	/**
+	 * Returns the id of the given name, assigning a new id if the name
+	 * has not been seen before.
+	 */
+	public int intern(String name) {
+		int slot = findSlot(name);
+
+		if (table[slot] != NO_ID) {
+			return table[slot];
+		}
+
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+		}
+
+		int id = size++;
+		names[id] = name;
+		table[slot] = id;
+
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given name, or -1 if the name is unknown.
+	 */
+	public int getId(String name) {
+		return table[findSlot(name)];
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int findSlot(String name) {
+		int mask = table.length - 1;
+		int slot = mix(name.hashCode()) & mask;
+
+		while (table[slot] != NO_ID && !names[table[slot]].equals(name)) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		table = newTable(capacity);
+		int mask = capacity - 1;
+
+		for (int id = 0; id < size; id++) {
+			int slot = mix(names[id].hashCode()) & mask;
+
+			while (table[slot] != NO_ID) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = id;
+		}
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, NO_ID);
+		return table;
+	}
+
+	static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,85 @@
+package flownetter;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Collects flows added from any number of threads until they are drained
+ * by a single consumer.
+ *
+ * Each thread appends to a segment of its own, so producers never contend
+ * with each other and only briefly with a drain taking their segment. The
+ * flows of one thread are drained in the order they were added.
+ */
+class FlowBuffer {
+
+	private static final int INITIAL_SEGMENT_SIZE = 64;
+
+	private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+	private final ThreadLocal<Segment> threadSegment = ThreadLocal.withInitial(() -> {
+		Segment segment = new Segment(Thread.currentThread());
+		segments.add(segment);
+		return segment;
+	});
+
+	void add(Flow flow) {
+		Segment segment = threadSegment.get();
+
+		synchronized (segment) {
+			segment.add(flow);
+		}
+	}
+
+	/**
+	 * Passes all flows added so far to the consumer. Flows added while
+	 * draining may be left for the next drain.
+	 */
+	void drain(Consumer<Flow> consumer) {
+		for (Segment segment : segments) {
+			Flow[] flows;
+			int count;
+
+			synchronized (segment) {
+				flows = segment.flows;
+				count = segment.count;
+
+				if (count == 0) {
+					// Segments of threads that have ended are never added to again
+					if (segment.owner.get() == null) {
+						segments.remove(segment);
+					}
+					continue;
+				}
+
+				segment.flows = new Flow[INITIAL_SEGMENT_SIZE];
+				segment.count = 0;
+			}
+
+			for (int i = 0; i < count; i++) {
+				consumer.accept(flows[i]);
+			}
+		}
+	}
+
+	private static class Segment {
+		private final WeakReference<Thread> owner;
+		private Flow[] flows = new Flow[INITIAL_SEGMENT_SIZE];
+		private int count;
+
+		Segment(Thread owner) {
+			this.owner = new WeakReference<>(owner);
+		}
+
+		void add(Flow flow) {
+			if (count == flows.length) {
+				Flow[] grown = new Flow[count * 2];
+				System.arraycopy(flows, 0, grown, 0, count);
+				flows = grown;
+			}
+			flows[count++] = flow;
+		}
+	}
+}
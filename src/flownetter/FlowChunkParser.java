@@ -0,0 +1,230 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses one chunk of a delimited flow file, one flow per line as
+ * source, sink and value.
+ *
+ * Names are interned into ids local to the chunk by hashing their bytes,
+ * so a String is only created once per distinct name in the chunk rather
+ * than twice per line. Local ids are given in the order the names first
+ * appear, which lets chunks be merged in file order into the same global
+ * ids a sequential load would give.
+ */
+class FlowChunkParser {
+
+	private static final int NO_ID = -1;
+
+	private final ByteBuffer chunk;
+	private final long chunkOffset;
+	private final byte delimiter;
+
+	// Parsed flows, column wise, referring to local name ids
+	private int flowCount;
+	private int[] sources = new int[1024];
+	private int[] sinks = new int[1024];
+	private long[] values = new long[1024];
+
+	// Open addressing table of names, two ints per entry holding the hash
+	// and the local id of the name, so that most probes touch a single
+	// cache line
+	private int nameCount;
+	private byte[][] names = new byte[64][];
+	private int[] table = newTable(128);
+
+	/**
+	 * @param chunk whole lines of the file, from position 0 to its limit
+	 * @param chunkOffset position of the chunk in the file, for error messages
+	 */
+	FlowChunkParser(ByteBuffer chunk, long chunkOffset, char delimiter) {
+		this.chunk = chunk;
+		this.chunkOffset = chunkOffset;
+		this.delimiter = (byte) delimiter;
+	}
+
+	FlowChunkParser parse() throws IOException {
+		int limit = chunk.limit();
+		int position = 0;
+
+		while (position < limit) {
+			int lineEnd = indexOf((byte) '\n', position, limit);
+			int end = lineEnd;
+
+			if (end > position && chunk.get(end - 1) == '\r') {
+				end--;
+			}
+
+			if (end > position) {
+				parseLine(position, end);
+			}
+
+			position = lineEnd + 1;
+		}
+
+		return this;
+	}
+
+	private void parseLine(int start, int end) throws IOException {
+		int first = indexOf(delimiter, start, end);
+		int second = first == end ? end : indexOf(delimiter, first + 1, end);
+
+		if (second == end) {
+			throw malformed(start, "expected source, sink and value");
+		}
+
+		if (flowCount == sources.length) {
+			int length = flowCount * 2;
+			sources = Arrays.copyOf(sources, length);
+			sinks = Arrays.copyOf(sinks, length);
+			values = Arrays.copyOf(values, length);
+		}
+
+		sources[flowCount] = intern(start, first);
+		sinks[flowCount] = intern(first + 1, second);
+		values[flowCount] = parseValue(second + 1, end, start);
+		flowCount++;
+	}
+
+	private long parseValue(int start, int end, int lineStart) throws IOException {
+		boolean negative = start < end && chunk.get(start) == '-';
+		int position = negative ? start + 1 : start;
+
+		if (position == end) {
+			throw malformed(lineStart, "missing value");
+		}
+
+		long value = 0;
+
+		for (; position < end; position++) {
+			int digit = chunk.get(position) - '0';
+
+			if (digit < 0 || digit > 9) {
+				throw malformed(lineStart, "value is not an integer");
+			}
+
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				throw malformed(lineStart, "value out of range");
+			}
+
+			value = value * 10 + digit;
+		}
+
+		return negative ? -value : value;
+	}
+
+	private int intern(int start, int end) {
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chunk.get(i);
+		}
+
+		int mask = (table.length >> 1) - 1;
+		int slot = EntityDictionary.mix(hash) & mask;
+
+		while (table[2 * slot + 1] != NO_ID) {
+			int id = table[2 * slot + 1];
+
+			if (table[2 * slot] == hash && sameName(names[id], start, end)) {
+				return id;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		if (nameCount == names.length) {
+			names = Arrays.copyOf(names, nameCount * 2);
+		}
+
+		byte[] name = new byte[end - start];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = chunk.get(start + i);
+		}
+
+		int id = nameCount++;
+		names[id] = name;
+		table[2 * slot] = hash;
+		table[2 * slot + 1] = id;
+
+		if (nameCount * 4 > table.length) {
+			rehash(table.length);
+		}
+
+		return id;
+	}
+
+	private boolean sameName(byte[] name, int start, int end) {
+		if (name.length != end - start) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length; i++) {
+			if (name[i] != chunk.get(start + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldTable = table;
+		table = newTable(capacity);
+		int mask = capacity - 1;
+
+		for (int i = 1; i < oldTable.length; i += 2) {
+			if (oldTable[i] == NO_ID) {
+				continue;
+			}
+
+			int slot = EntityDictionary.mix(oldTable[i - 1]) & mask;
+
+			while (table[2 * slot + 1] != NO_ID) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[2 * slot] = oldTable[i - 1];
+			table[2 * slot + 1] = oldTable[i];
+		}
+	}
+
+	private int indexOf(byte value, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (chunk.get(i) == value) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	private IOException malformed(int lineStart, String reason) {
+		return new IOException(
+			"Malformed line at byte " + (chunkOffset + lineStart) + ": " + reason);
+	}
+
+	/**
+	 * Adds the parsed flows to the pairs, interning the names of the chunk
+	 * into the entity dictionary of their collection first.
+	 */
+	void addTo(PairNetting pairs) {
+		EntityDictionary entities = pairs.getEntities();
+		int[] ids = new int[nameCount];
+
+		for (int id = 0; id < nameCount; id++) {
+			ids[id] = entities.intern(new String(names[id], StandardCharsets.UTF_8));
+		}
+
+		for (int i = 0; i < flowCount; i++) {
+			pairs.add(ids[sources[i]], ids[sinks[i]], values[i]);
+		}
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity * 2];
+		Arrays.fill(table, NO_ID);
+		return table;
+	}
+}
@@ -1,143 +1,613 @@
 package flownetter;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * The flows being netted, kept column wise in a {@link FlowStore} and
+ * referred to internally by flow id, the slot of the flow in the store.
+ * {@link Flow} objects are only created when the flows are read out.
+ *
+ * The flows between the same source and sink form a doubly linked list
+ * through the store, and the slots of removed flows form a free list
+ * reused by later flows, so adding and removing a flow take constant time.
+ *
+ * The public methods taking and returning ids are what a
+ * {@link NettingStrategy} outside this package nets the flows with.
+ * Entity ids are those of {@link #getEntities()}.
+ */
 public class FlowCollection {
 
-	private List<Flow> flows = new ArrayList<>();
-	
-	private Map<String, Map<String, Collection<Flow>>> flowBySink = new HashMap<>();
-	private Map<String, Map<String, Collection<Flow>>> flowBySource = new HashMap<>();
+	private static final int[] NONE = new int[0];
 
-	private boolean changed;
+	// Marks the source of an unused slot
+	private static final int FREE = -1;
 
+	// Ends a list of flows
+	private static final int NO_FLOW = -1;
+
+	private EntityDictionary entities = new EntityDictionary();
+
+	private final FlowStore store;
+
+	// Slots 0 .. slotCount - 1 have been used, of which size hold a flow.
+	// The others are linked from firstFree through their next link.
+	private int slotCount;
+	private int size;
+	private int firstFree = NO_FLOW;
+
+	// Indexed by entity id, keyed by the id of the counterparty, holding
+	// the first flow of the list between the two
+	private IntIntHashMap[] flowBySink = new IntIntHashMap[16];
+	private IntIntHashMap[] flowBySource = new IntIntHashMap[16];
+
+	// Total value flowing into and out of each entity, indexed by entity id
+	private long[] incoming = new long[16];
+	private long[] outgoing = new long[16];
+
+	// Net value of each entity over the flows added as input, which
+	// netting must keep, indexed by entity id
+	private long[] inputBalances = new long[16];
+
+	private long totalValue;
+	private int peakSize;
+
+	// Entities with a flow added or removed since the last call to takeDirty
+	private BitSet dirty = new BitSet();
+
+	// As dirty, but since the last call to takeTouched
+	private BitSet touched = new BitSet();
+
+	public FlowCollection() {
+		this(FlowStorage.HEAP);
+	}
+
+	public FlowCollection(FlowStorage storage) {
+		store = FlowStore.create(storage);
+	}
+
+	public EntityDictionary getEntities() {
+		return entities;
+	}
+
+	/**
+	 * Returns the flows currently in the collection
+	 */
 	public List<Flow> getFlows() {
+		List<Flow> flows = new ArrayList<>(size);
+
+		for (int flow = nextFlow(-1); flow != NO_FLOW; flow = nextFlow(flow)) {
+			flows.add(new Flow(
+				entities.getName(store.getSource(flow)),
+				entities.getName(store.getSink(flow)),
+				store.getValue(flow)));
+		}
+
 		return flows;
 	}
-	
-	public Collection<String> getSources() {
-		return new ArrayList<String>(flowBySource.keySet());
-	}
-	
-	public Collection<String> getSinks(String source) {
-		Map<String, Collection<Flow>> map = flowBySource.get(source);
-		
-		if (map == null) {
-			return Collections.<String>emptyList();
-		}
-		
-		return new ArrayList<String>(map.keySet());
-	}
-	
-	public Collection<String> getSources(String sink) {
-		Map<String, Collection<Flow>> map = flowBySink.get(sink);
-		
-		if (map == null) {
-			return Collections.<String>emptyList();
-		}
-		
-		return new ArrayList<String>(map.keySet());
-	}
-
-	public List<Flow> getFlows(String source, String sink) {
-		Map<String, Collection<Flow>> map = flowBySource.get(source);
-		
-		if (map != null) {
-			Collection<Flow> flows = map.get(sink);
-			if (flows != null) {
-				return new ArrayList<>(flows);
+
+	/**
+	 * Returns the id of the first flow after the given one, in slot order,
+	 * or -1 if there is none. Pass -1 to get the first flow.
+	 */
+	public int nextFlow(int flow) {
+		for (int slot = flow + 1; slot < slotCount; slot++) {
+			if (store.getSource(slot) != FREE) {
+				return slot;
+			}
+		}
+		return NO_FLOW;
+	}
+
+	/**
+	 * Returns the number of flows in the collection
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the sum of the values of all flows
+	 */
+	public long getTotalValue() {
+		return totalValue;
+	}
+
+	/**
+	 * Returns the largest number of flows held since the last call to
+	 * resetPeakSize
+	 */
+	int getPeakSize() {
+		return peakSize;
+	}
+
+	void resetPeakSize() {
+		peakSize = size;
+	}
+
+	/**
+	 * Returns the entity id of the source of the flow
+	 */
+	public int getSource(int flow) {
+		return store.getSource(flow);
+	}
+
+	/**
+	 * Returns the entity id of the sink of the flow
+	 */
+	public int getSink(int flow) {
+		return store.getSink(flow);
+	}
+
+	public long getValue(int flow) {
+		return store.getValue(flow);
+	}
+
+	/**
+	 * Returns the ids of all entities with at least one outgoing flow
+	 */
+	public int[] getSources() {
+		int[] sources = new int[entities.size()];
+		int count = 0;
+
+		for (int id = 0; id < entities.size(); id++) {
+			if (hasSinks(id)) {
+				sources[count++] = id;
 			}
 		}
-		
-		return Collections.<Flow>emptyList();
+
+		return Arrays.copyOf(sources, count);
+	}
+
+	boolean hasSinks(int source) {
+		return flowBySource[source] != null && !flowBySource[source].isEmpty();
+	}
+
+	/**
+	 * Returns the ids of the entities the source has flows to
+	 */
+	public int[] getSinks(int source) {
+		IntIntHashMap map = flowBySource[source];
+		return map == null ? NONE : map.keys();
+	}
+
+	/**
+	 * Returns the ids of the entities the sink has flows from
+	 */
+	public int[] getSources(int sink) {
+		IntIntHashMap map = flowBySink[sink];
+		return map == null ? NONE : map.keys();
+	}
+
+	/**
+	 * Returns the net value of the entity, i.e. incoming minus outgoing
+	 */
+	public long getBalance(int entity) {
+		return incoming[entity] - outgoing[entity];
+	}
+
+	/**
+	 * Returns the net value of every entity, indexed by entity id
+	 */
+	long[] getBalances() {
+		long[] balances = new long[entities.size()];
+
+		for (int id = 0; id < balances.length; id++) {
+			balances[id] = incoming[id] - outgoing[id];
+		}
+
+		return balances;
+	}
+
+	/**
+	 * Returns the net value of the entity over all flows added as input
+	 */
+	long getInputBalance(int entity) {
+		return entity < inputBalances.length ? inputBalances[entity] : 0;
+	}
+
+	/**
+	 * Returns the first flow from source to sink, or -1 if there is none
+	 */
+	public int getFlow(int source, int sink) {
+		IntIntHashMap map = flowBySource[source];
+		return map == null ? NO_FLOW : map.get(sink);
+	}
+
+	/**
+	 * Returns the total value of all flows from source to sink
+	 */
+	public long getTotalValue(int source, int sink) {
+		long value = 0;
+
+		for (int flow = getFlow(source, sink); flow != NO_FLOW; flow = store.getNext(flow)) {
+			value += store.getValue(flow);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Makes room for adding the given number of flows without growing the
+	 * store in between
+	 */
+	void ensureCapacity(int flows) {
+		store.ensureCapacity(slotCount + flows);
 	}
 
 	public void add(Flow flow) {
-		setChanged(true);
-		
-		flows.add(flow);
-	
-		add(flowBySink, flow.getSink(), flow.getSource(), flow);
-		add(flowBySource, flow.getSource(), flow.getSink(), flow);
-	}
-	
-
-	public void remove(Flow flow) {
-		setChanged(true);
-		
-		flows.remove(flow);
-	
-		remove(flowBySink, flow.getSink(), flow.getSource(), flow);
-		remove(flowBySource, flow.getSource(), flow.getSink(), flow);
-	}
-	
-	private void add(
-			Map<String, Map<String, Collection<Flow>>> collection,
-			String primaryKey, 
-			String secondaryKey,
-			Flow flow) {
-		
-		Map<String, Collection<Flow>> map = collection.get(primaryKey);
-		if (map == null) {
-			map = new HashMap<>();
-			collection.put(primaryKey, map);
-		}
-		
-		Collection<Flow> flows = map.get(secondaryKey);
-		
-		if (flows == null) {
-			flows = new ArrayList<>();
-			map.put(secondaryKey, flows);
-		}
-
-		flows.add(flow);
-	}
-
-	private void remove(
-			Map<String, Map<String, Collection<Flow>>> collection,
-			String primaryKey, 
-			String secondaryKey,
-			Flow flow) {
-		
-		Map<String, Collection<Flow>> map = collection.get(primaryKey);
-		if (map == null) {
-			return;
+		addInput(entities.intern(flow.getSource()),
+			entities.intern(flow.getSink()),
+			flow.getValue());
+	}
+
+	/**
+	 * Adds a flow to be netted, as opposed to one added by the netting
+	 */
+	int addInput(int source, int sink, long value) {
+		int flow = add(source, sink, value);
+
+		inputBalances[sink] += value;
+		inputBalances[source] -= value;
+
+		return flow;
+	}
+
+	/**
+	 * Adds a flow between two known entities and returns its id
+	 */
+	public int add(int source, int sink, long value) {
+		int flow;
+
+		if (firstFree != NO_FLOW) {
+			flow = firstFree;
+			firstFree = store.getNext(flow);
+		} else {
+			flow = slotCount++;
+			store.ensureCapacity(slotCount);
 		}
-		
-		Collection<Flow> flows = map.get(secondaryKey);
-		
-		if (flows == null) {
+
+		store.set(flow, source, sink, value);
+
+		size++;
+		totalValue += value;
+		peakSize = Math.max(peakSize, size);
+
+		ensureEntityCapacity();
+
+		incoming[sink] += value;
+		outgoing[source] += value;
+
+		dirty.set(source);
+		dirty.set(sink);
+		touched.set(source);
+		touched.set(sink);
+
+		link(flow, source, sink);
+
+		return flow;
+	}
+
+	public void remove(int flow) {
+		int source = store.getSource(flow);
+		int sink = store.getSink(flow);
+		long value = store.getValue(flow);
+
+		unlink(flow, source, sink);
+
+		store.set(flow, FREE, FREE, 0);
+		store.setNext(flow, firstFree);
+		firstFree = flow;
+
+		size--;
+		totalValue -= value;
+
+		incoming[sink] -= value;
+		outgoing[source] -= value;
+
+		dirty.set(source);
+		dirty.set(sink);
+		touched.set(source);
+		touched.set(sink);
+	}
+
+	/**
+	 * Makes room for every entity known, also those without any flows
+	 */
+	void ensureEntityCapacity() {
+		if (entities.size() > flowBySource.length) {
+			int capacity = Math.max(entities.size(), flowBySource.length * 2);
+			flowBySink = Arrays.copyOf(flowBySink, capacity);
+			flowBySource = Arrays.copyOf(flowBySource, capacity);
+			incoming = Arrays.copyOf(incoming, capacity);
+			outgoing = Arrays.copyOf(outgoing, capacity);
+			inputBalances = Arrays.copyOf(inputBalances, capacity);
+		}
+	}
+
+	void remove(IntList flows) {
+		for (int i = 0; i < flows.size(); i++) {
+			remove(flows.get(i));
+		}
+	}
+
+	/**
+	 * Changes the value of a flow in place, removing it if the value is 0
+	 */
+	public void setValue(int flow, long value) {
+		if (value == 0) {
+			remove(flow);
 			return;
 		}
 
-		flows.remove(flow);
-		
-		if (flows.isEmpty()) {
-			map.remove(secondaryKey);
-			
-			if (map.isEmpty()) {
-				collection.remove(primaryKey);
+		int source = store.getSource(flow);
+		int sink = store.getSink(flow);
+		long change = value - store.getValue(flow);
+
+		store.setValue(flow, value);
+
+		totalValue += change;
+		incoming[sink] += change;
+		outgoing[source] += change;
+
+		dirty.set(source);
+		dirty.set(sink);
+		touched.set(source);
+		touched.set(sink);
+	}
+
+	/**
+	 * Merges all flows from source to sink into the first one and returns
+	 * it, or -1 if there are none
+	 */
+	public int aggregate(int source, int sink) {
+		int first = getFlow(source, sink);
+
+		if (first == NO_FLOW || store.getNext(first) == NO_FLOW) {
+			return first;
+		}
+
+		long value = store.getValue(first);
+
+		for (int flow = store.getNext(first); flow != NO_FLOW; ) {
+			int next = store.getNext(flow);
+			value += store.getValue(flow);
+			remove(flow);
+			flow = next;
+		}
+
+		setValue(first, value);
+
+		return first;
+	}
+
+	/**
+	 * Removes all flows from source to sink
+	 */
+	public void removeAll(int source, int sink) {
+		for (int flow = getFlow(source, sink); flow != NO_FLOW; flow = getFlow(source, sink)) {
+			remove(flow);
+		}
+	}
+
+	/**
+	 * Adds the ids of all flows from source to sink to the list
+	 */
+	void addFlows(int source, int sink, IntList flows) {
+		for (int flow = getFlow(source, sink); flow != NO_FLOW; flow = store.getNext(flow)) {
+			flows.add(flow);
+		}
+	}
+
+	/**
+	 * Puts the flow first in the list of flows from source to sink
+	 */
+	private void link(int flow, int source, int sink) {
+		int next = getFlow(source, sink);
+
+		store.setPrevious(flow, NO_FLOW);
+		store.setNext(flow, next);
+
+		if (next != NO_FLOW) {
+			store.setPrevious(next, flow);
+		}
+
+		setFirst(source, sink, flow);
+	}
+
+	private void unlink(int flow, int source, int sink) {
+		int previous = store.getPrevious(flow);
+		int next = store.getNext(flow);
+
+		if (next != NO_FLOW) {
+			store.setPrevious(next, previous);
+		}
+
+		if (previous != NO_FLOW) {
+			store.setNext(previous, next);
+		} else if (next != NO_FLOW) {
+			setFirst(source, sink, next);
+		} else {
+			flowBySource[source].remove(sink);
+			flowBySink[sink].remove(source);
+		}
+	}
+
+	private void setFirst(int source, int sink, int flow) {
+		if (flowBySource[source] == null) {
+			flowBySource[source] = new IntIntHashMap();
+		}
+		if (flowBySink[sink] == null) {
+			flowBySink[sink] = new IntIntHashMap();
+		}
+
+		flowBySource[source].put(sink, flow);
+		flowBySink[sink].put(source, flow);
+	}
+
+	/**
+	 * Removes all flows, keeping the known entities
+	 */
+	void clear() {
+		slotCount = 0;
+		size = 0;
+		firstFree = NO_FLOW;
+		totalValue = 0;
+
+		Arrays.fill(flowBySink, null);
+		Arrays.fill(flowBySource, null);
+		Arrays.fill(incoming, 0);
+		Arrays.fill(outgoing, 0);
+
+		dirty.set(0, entities.size());
+		touched.set(0, entities.size());
+	}
+
+	/**
+	 * Writes the collection to the file as laid out in {@link SnapshotFormat}
+	 */
+	void writeSnapshot(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			SnapshotOutput out = new SnapshotOutput(channel)) {
+
+			out.putInt(SnapshotFormat.MAGIC);
+			out.putInt(SnapshotFormat.VERSION);
+			out.putInt(entities.size());
+
+			for (int id = 0; id < entities.size(); id++) {
+				byte[] name = entities.getName(id).getBytes(StandardCharsets.UTF_8);
+				out.putInt(name.length);
+				out.put(name);
+			}
+
+			out.putLongs(incoming, entities.size());
+			out.putLongs(outgoing, entities.size());
+			out.putLongs(inputBalances, entities.size());
+
+			for (IntIntHashMap[] index : new IntIntHashMap[][] { flowBySource, flowBySink }) {
+				for (int id = 0; id < entities.size(); id++) {
+					if (index[id] == null) {
+						out.putInt(0);
+					} else {
+						out.putInt(1);
+						index[id].write(out);
+					}
+				}
 			}
+
+			out.putInt(slotCount);
+			out.putInt(size);
+			out.putInt(firstFree);
+			out.putLong(totalValue);
+
+			store.write(out, slotCount);
 		}
 	}
 
-	public void setChanged(boolean changed) {
-		this.changed = changed;
+	/**
+	 * Reads a collection written by writeSnapshot. With direct storage the
+	 * flows are mapped from the file rather than read.
+	 */
+	static FlowCollection readSnapshot(Path file, FlowStorage storage) throws IOException {
+		// Mapping copy on write needs a channel open for writing, though
+		// the file is never written
+		try (FileChannel channel = storage == FlowStorage.DIRECT ?
+				FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+				FileChannel.open(file, StandardOpenOption.READ)) {
+
+			SnapshotInput in = new SnapshotInput(channel);
+
+			if (in.getInt() != SnapshotFormat.MAGIC) {
+				throw new IOException(file + " is not a snapshot");
+			}
+
+			int version = in.getInt();
+			if (version != SnapshotFormat.VERSION) {
+				throw new IOException("Unsupported snapshot version " + version);
+			}
+
+			FlowCollection flowCollection = new FlowCollection(storage);
+			int entityCount = in.getInt();
+
+			for (int id = 0; id < entityCount; id++) {
+				byte[] name = new byte[in.getInt()];
+				in.get(name);
+				flowCollection.entities.intern(new String(name, StandardCharsets.UTF_8));
+			}
+
+			flowCollection.ensureEntityCapacity();
+
+			in.getLongs(flowCollection.incoming, entityCount);
+			in.getLongs(flowCollection.outgoing, entityCount);
+			in.getLongs(flowCollection.inputBalances, entityCount);
+
+			for (IntIntHashMap[] index : new IntIntHashMap[][] {
+					flowCollection.flowBySource, flowCollection.flowBySink }) {
+				for (int id = 0; id < entityCount; id++) {
+					index[id] = in.getInt() == 0 ? null : IntIntHashMap.read(in);
+				}
+			}
+
+			flowCollection.slotCount = in.getInt();
+			flowCollection.size = in.getInt();
+			flowCollection.firstFree = in.getInt();
+			flowCollection.totalValue = in.getLong();
+			flowCollection.peakSize = flowCollection.size;
+
+			long position = in.position();
+			long slotBytes = (long) SnapshotFormat.pages(flowCollection.slotCount) *
+				FlowStore.SLOT_BYTES << SnapshotFormat.PAGE_SHIFT;
+
+			if (channel.size() != position + slotBytes) {
+				throw new IOException("Expected " + flowCollection.slotCount + " slots in " + file);
+			}
+
+			flowCollection.store.read(channel, position, flowCollection.slotCount);
+
+			return flowCollection;
+		}
+	}
+
+	/**
+	 * Returns a copy of the entities with a flow added or removed since the
+	 * last call to takeDirty
+	 */
+	BitSet getDirty() {
+		return (BitSet) dirty.clone();
+	}
+
+	/**
+	 * Returns the entities with a flow added or removed since the last call
+	 * and starts tracking anew
+	 */
+	BitSet takeDirty() {
+		BitSet result = dirty;
+		dirty = new BitSet();
+		return result;
 	}
 
-	
-	public boolean isChanged() {
-		return changed;
+	/**
+	 * Marks the entities as dirty, for work left over to a later netting
+	 */
+	void markDirty(BitSet entities) {
+		dirty.or(entities);
 	}
 
-	public void remove(Collection<Flow> flows) {
-		flows.stream()
-			.forEach(flow -> remove(flow));
+	/**
+	 * Returns the entities with a flow added or removed since the last call
+	 * to takeTouched, independent of takeDirty, and starts tracking anew
+	 */
+	BitSet takeTouched() {
+		BitSet result = touched;
+		touched = new BitSet();
+		return result;
 	}
 }
-	
\ No newline at end of file
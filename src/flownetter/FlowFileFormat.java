@@ -0,0 +1,28 @@
+package flownetter;
+
+/**
+ * Layout of the binary flow file, all numbers big endian:
+ *
+ * <pre>
+ * int    magic, "FLOW"
+ * int    version
+ * int    number of entities
+ *        per entity: int length, then the name in UTF-8
+ * long   number of flows
+ *        per flow: int source id, int sink id, long value
+ * </pre>
+ *
+ * Entity ids index the names in the order written. Every flow record has
+ * the same size, so the flows can be read straight from a mapped file.
+ */
+final class FlowFileFormat {
+
+	static final int MAGIC = 0x464C4F57;
+
+	static final int VERSION = 1;
+
+	static final int FLOW_BYTES = 16;
+
+	private FlowFileFormat() {
+	}
+}
@@ -0,0 +1,150 @@
+package flownetter;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of flow values, each paired with the entity on the other
+ * end of the flow. Flows with the same value are ordered by when they were
+ * added, and a reduced flow counts as added again.
+ *
+ * The smallest value is on top, unless created to keep the largest on top.
+ */
+class FlowHeap {
+
+	private long[] values;
+	private int[] entities;
+	private int[] sequences;
+	private int size;
+	private int nextSequence;
+
+	private final boolean largestFirst;
+
+	FlowHeap(int expectedSize) {
+		this(expectedSize, false);
+	}
+
+	FlowHeap(int expectedSize, boolean largestFirst) {
+		this.largestFirst = largestFirst;
+
+		int capacity = Math.max(expectedSize, 4);
+		values = new long[capacity];
+		entities = new int[capacity];
+		sequences = new int[capacity];
+	}
+
+	void add(int entity, long value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			entities = Arrays.copyOf(entities, size * 2);
+			sequences = Arrays.copyOf(sequences, size * 2);
+		}
+
+		values[size] = value;
+		entities[size] = entity;
+		sequences[size] = nextSequence++;
+
+		siftUp(size++);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	long peekValue() {
+		return values[0];
+	}
+
+	int peekEntity() {
+		return entities[0];
+	}
+
+	void removeTop() {
+		size--;
+		move(size, 0);
+		siftDown(0);
+	}
+
+	/**
+	 * Reduces the value of the top flow, removing it if nothing is left
+	 */
+	void reduceTop(long amount) {
+		long value = values[0] - amount;
+
+		if (value > 0) {
+			values[0] = value;
+			sequences[0] = nextSequence++;
+		} else {
+			size--;
+			move(size, 0);
+		}
+
+		siftDown(0);
+	}
+
+	private boolean less(int i, int j) {
+		if (values[i] != values[j]) {
+			return largestFirst ? values[i] > values[j] : values[i] < values[j];
+		}
+		return sequences[i] < sequences[j];
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+
+			if (!less(index, parent)) {
+				return;
+			}
+
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while (true) {
+			int smallest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+
+			if (left < size && less(left, smallest)) {
+				smallest = left;
+			}
+
+			if (right < size && less(right, smallest)) {
+				smallest = right;
+			}
+
+			if (smallest == index) {
+				return;
+			}
+
+			swap(index, smallest);
+			index = smallest;
+		}
+	}
+
+	private void move(int from, int to) {
+		values[to] = values[from];
+		entities[to] = entities[from];
+		sequences[to] = sequences[from];
+	}
+
+	private void swap(int i, int j) {
+		long value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+
+		int entity = entities[i];
+		entities[i] = entities[j];
+		entities[j] = entity;
+
+		int sequence = sequences[i];
+		sequences[i] = sequences[j];
+		sequences[j] = sequence;
+	}
+}
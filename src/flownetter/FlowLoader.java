@@ -0,0 +1,245 @@
+package flownetter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads flows from files straight into a {@link Netter}, without creating
+ * a {@link Flow} per line.
+ *
+ * Delimited text files hold one flow per line as source, sink and an
+ * integer value. The file is memory mapped and split into chunks at line
+ * boundaries, which are parsed concurrently and then added in file order,
+ * so entities get the same ids as when adding the flows one by one.
+ * Flows between the same two entities are netted into one as they are
+ * added, see {@link PairNetting}.
+ *
+ * Binary files use the layout described in {@link FlowFileFormat}.
+ */
+public class FlowLoader {
+
+	private static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+	// Flow records mapped at a time from a binary file
+	private static final int BINARY_WINDOW_FLOWS = 1 << 22;
+
+	private final ForkJoinPool pool;
+
+	private char delimiter = ',';
+
+	private boolean header;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public FlowLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool the pool to parse chunks on
+	 */
+	public FlowLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Sets whether the first line of delimited files is a header to skip
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * Sets the approximate number of bytes parsed by each task
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public void loadDelimited(Path file, Netter netter) throws IOException {
+		loadDelimited(file, netter.getFlowCollection());
+	}
+
+	public void loadBinary(Path file, Netter netter) throws IOException {
+		loadBinary(file, netter.getFlowCollection());
+	}
+
+	void loadDelimited(Path file, FlowCollection flowCollection) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] boundaries = findChunkBoundaries(channel);
+
+			List<ForkJoinTask<FlowChunkParser>> tasks = new ArrayList<>();
+			PairNetting pairs = new PairNetting(flowCollection);
+
+			for (int i = 0; i + 1 < boundaries.length; i++) {
+				long start = boundaries[i];
+				long size = boundaries[i + 1] - start;
+
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+				tasks.add(pool.submit(() -> parse(chunk, start)));
+			}
+
+			for (ForkJoinTask<FlowChunkParser> task : tasks) {
+				join(task).addTo(pairs);
+			}
+
+			pairs.flush();
+		}
+	}
+
+	private FlowChunkParser parse(ByteBuffer chunk, long start) {
+		try {
+			return new FlowChunkParser(chunk, start, delimiter).parse();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of about chunkSize bytes, each ending
+	 * right after a line break or at the end of the file.
+	 */
+	private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> boundaries = new ArrayList<>();
+
+		long position = header ? nextLine(channel, 0) : 0;
+		boundaries.add(position);
+
+		while (position < size) {
+			position = position + chunkSize >= size ?
+				size : nextLine(channel, position + chunkSize);
+			boundaries.add(position);
+		}
+
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the position after the first line break at or after the
+	 * given position, or the size of the file if there is none
+	 */
+	private static long nextLine(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		while (true) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+
+			if (read <= 0) {
+				return channel.size();
+			}
+
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+
+			position += read;
+		}
+	}
+
+	void loadBinary(Path file, FlowCollection flowCollection) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel)));
+
+			if (in.readInt() != FlowFileFormat.MAGIC) {
+				throw new IOException(file + " is not a flow file");
+			}
+
+			int version = in.readInt();
+			if (version != FlowFileFormat.VERSION) {
+				throw new IOException("Unsupported flow file version " + version);
+			}
+
+			int entityCount = in.readInt();
+			int[] ids = new int[entityCount];
+			PairNetting pairs = new PairNetting(flowCollection);
+
+			// Position of the first flow, counted separately since the
+			// buffered stream reads ahead
+			long position = 3 * Integer.BYTES + Long.BYTES;
+
+			for (int id = 0; id < entityCount; id++) {
+				byte[] name = new byte[in.readInt()];
+				in.readFully(name);
+				position += Integer.BYTES + name.length;
+				ids[id] = flowCollection.getEntities().intern(new String(name, StandardCharsets.UTF_8));
+			}
+
+			long flowCount = in.readLong();
+
+			if (channel.size() - position != flowCount * FlowFileFormat.FLOW_BYTES) {
+				throw new IOException("Expected " + flowCount + " flows in " + file);
+			}
+
+			while (flowCount > 0) {
+				int flows = (int) Math.min(flowCount, BINARY_WINDOW_FLOWS);
+
+				MappedByteBuffer window = channel.map(
+					FileChannel.MapMode.READ_ONLY, position, (long) flows * FlowFileFormat.FLOW_BYTES);
+
+				for (int i = 0; i < flows; i++) {
+					int offset = i * FlowFileFormat.FLOW_BYTES;
+					int source = window.getInt(offset);
+					int sink = window.getInt(offset + 4);
+
+					if (source < 0 || source >= entityCount || sink < 0 || sink >= entityCount) {
+						throw new IOException("Unknown entity id in flow at byte " + (position + offset));
+					}
+
+					pairs.add(ids[source], ids[sink], window.getLong(offset + 8));
+				}
+
+				position += (long) flows * FlowFileFormat.FLOW_BYTES;
+				flowCount -= flows;
+			}
+
+			pairs.flush();
+		}
+	}
+
+	private static <T> T join(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading flows");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package flownetter;
+
+/**
+ * Where a {@link FlowCollection} keeps the source, sink and value of its
+ * flows
+ */
+public enum FlowStorage {
+	/** In arrays on the Java heap */
+	HEAP,
+
+	/**
+	 * In direct byte buffers outside the Java heap, so that very large
+	 * collections neither need a large heap nor add to garbage collection
+	 * time
+	 */
+	DIRECT
+}
@@ -0,0 +1,81 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Columnar storage of flows. Each flow occupies a numbered slot holding
+ * its source and sink entity ids, its value and the links to the next and
+ * previous flow in its list, 24 bytes in all, instead of an object per flow.
+ */
+abstract class FlowStore {
+
+	// Layout of a slot in a direct page or a snapshot: source, sink,
+	// value, next and previous
+	static final int SLOT_BYTES = 24;
+	static final int SINK_OFFSET = 4;
+	static final int VALUE_OFFSET = 8;
+	static final int NEXT_OFFSET = 16;
+	static final int PREVIOUS_OFFSET = 20;
+
+	static FlowStore create(FlowStorage storage) {
+		switch (storage) {
+		case HEAP:
+			return new HeapFlowStore();
+		case DIRECT:
+			return new DirectFlowStore();
+		default:
+			throw new IllegalArgumentException("Unknown storage " + storage);
+		}
+	}
+
+	abstract int getSource(int slot);
+
+	abstract int getSink(int slot);
+
+	abstract long getValue(int slot);
+
+	abstract void set(int slot, int source, int sink, long value);
+
+	abstract void setValue(int slot, long value);
+
+	abstract int getNext(int slot);
+
+	abstract void setNext(int slot, int next);
+
+	abstract int getPrevious(int slot);
+
+	abstract void setPrevious(int slot, int previous);
+
+	/**
+	 * Makes room for the slots 0 .. capacity - 1
+	 */
+	abstract void ensureCapacity(int capacity);
+
+	/**
+	 * Reads the given number of slots written by write, starting at the
+	 * position in the file
+	 */
+	abstract void read(FileChannel channel, long position, int slots) throws IOException;
+
+	/**
+	 * Writes the slots 0 .. slots - 1, padded with empty slots to a whole
+	 * number of pages, as laid out in {@link SnapshotFormat}
+	 */
+	void write(SnapshotOutput out, int slots) throws IOException {
+		for (int slot = 0; slot < slots; slot++) {
+			out.putInt(getSource(slot));
+			out.putInt(getSink(slot));
+			out.putLong(getValue(slot));
+			out.putInt(getNext(slot));
+			out.putInt(getPrevious(slot));
+		}
+
+		long padding = ((long) SnapshotFormat.pages(slots) << SnapshotFormat.PAGE_SHIFT) - slots;
+		byte[] empty = new byte[SLOT_BYTES];
+
+		for (long i = 0; i < padding; i++) {
+			out.put(empty);
+		}
+	}
+}
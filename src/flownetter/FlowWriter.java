@@ -0,0 +1,208 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the flows of a {@link Netter} straight to a channel, without
+ * creating a {@link Flow} per flow or a list of them.
+ *
+ * The formats are the ones read by {@link FlowLoader}: delimited text with
+ * one source, sink and value per line, or the binary layout described in
+ * {@link FlowFileFormat}. The flows are encoded into direct buffers taken
+ * from a pool shared by all writers.
+ */
+public class FlowWriter {
+
+	private static final BufferPool BUFFERS = new BufferPool(1 << 20, 16);
+
+	private static final byte[] HEADER = "source,sink,value".getBytes(StandardCharsets.US_ASCII);
+
+	private char delimiter = ',';
+
+	private boolean header;
+
+	/**
+	 * Sets the delimiter between the fields of delimited files, which must
+	 * be an ASCII character
+	 */
+	public void setDelimiter(char delimiter) {
+		if (delimiter > 127) {
+			throw new IllegalArgumentException("Delimiter must be ASCII: " + delimiter);
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Sets whether delimited files start with a header line
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	public void writeDelimited(Netter netter, Path file) throws IOException {
+		try (FileChannel channel = create(file)) {
+			writeDelimited(netter, channel);
+		}
+	}
+
+	public void writeBinary(Netter netter, Path file) throws IOException {
+		try (FileChannel channel = create(file)) {
+			writeBinary(netter, channel);
+		}
+	}
+
+	public void writeDelimited(Netter netter, WritableByteChannel channel) throws IOException {
+		FlowCollection flowCollection = netter.getFlowCollection();
+		EntityDictionary entities = flowCollection.getEntities();
+
+		// Each name is encoded the first time it is written
+		byte[][] names = new byte[entities.size()][];
+
+		try (Output out = new Output(channel)) {
+			if (header) {
+				for (int i = 0; i < HEADER.length; i++) {
+					out.put(HEADER[i] == ',' ? (byte) delimiter : HEADER[i]);
+				}
+				out.put((byte) '\n');
+			}
+
+			for (int flow = flowCollection.nextFlow(-1); flow >= 0; flow = flowCollection.nextFlow(flow)) {
+				out.put(name(names, entities, flowCollection.getSource(flow)));
+				out.put((byte) delimiter);
+				out.put(name(names, entities, flowCollection.getSink(flow)));
+				out.put((byte) delimiter);
+				out.putDecimal(flowCollection.getValue(flow));
+				out.put((byte) '\n');
+			}
+		}
+	}
+
+	public void writeBinary(Netter netter, WritableByteChannel channel) throws IOException {
+		FlowCollection flowCollection = netter.getFlowCollection();
+		EntityDictionary entities = flowCollection.getEntities();
+
+		try (Output out = new Output(channel)) {
+			out.ensure(3 * Integer.BYTES);
+			out.buffer.putInt(FlowFileFormat.MAGIC);
+			out.buffer.putInt(FlowFileFormat.VERSION);
+			out.buffer.putInt(entities.size());
+
+			for (int id = 0; id < entities.size(); id++) {
+				byte[] name = entities.getName(id).getBytes(StandardCharsets.UTF_8);
+
+				out.ensure(Integer.BYTES);
+				out.buffer.putInt(name.length);
+				out.put(name);
+			}
+
+			out.ensure(Long.BYTES);
+			out.buffer.putLong(flowCollection.size());
+
+			for (int flow = flowCollection.nextFlow(-1); flow >= 0; flow = flowCollection.nextFlow(flow)) {
+				out.ensure(FlowFileFormat.FLOW_BYTES);
+				out.buffer.putInt(flowCollection.getSource(flow));
+				out.buffer.putInt(flowCollection.getSink(flow));
+				out.buffer.putLong(flowCollection.getValue(flow));
+			}
+		}
+	}
+
+	private static byte[] name(byte[][] names, EntityDictionary entities, int id) {
+		if (names[id] == null) {
+			names[id] = entities.getName(id).getBytes(StandardCharsets.UTF_8);
+		}
+		return names[id];
+	}
+
+	private static FileChannel create(Path file) throws IOException {
+		return FileChannel.open(file,
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * A pooled buffer written to the channel whenever it fills up, and
+	 * once more when closed
+	 */
+	private static class Output implements AutoCloseable {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = BUFFERS.acquire();
+
+		// Digits of a value, filled from the end
+		private final byte[] digits = new byte[20];
+
+		Output(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Makes room for the given number of bytes, which must not exceed
+		 * the size of the buffer
+		 */
+		void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		void put(byte value) throws IOException {
+			ensure(1);
+			buffer.put(value);
+		}
+
+		void put(byte[] bytes) throws IOException {
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				writeFully(ByteBuffer.wrap(bytes));
+				return;
+			}
+
+			ensure(bytes.length);
+			buffer.put(bytes);
+		}
+
+		void putDecimal(long value) throws IOException {
+			if (value < 0) {
+				put((byte) '-');
+			}
+
+			int position = digits.length;
+
+			do {
+				// Taking the remainder rather than negating the value first keeps
+				// Long.MIN_VALUE working
+				digits[--position] = (byte) ('0' + Math.abs(value % 10));
+				value /= 10;
+			} while (value != 0);
+
+			ensure(digits.length - position);
+			buffer.put(digits, position, digits.length - position);
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+
+		private void writeFully(ByteBuffer source) throws IOException {
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				BUFFERS.release(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Keeps the flows in one array per column
+ */
+class HeapFlowStore extends FlowStore {
+
+	private int[] sources = new int[16];
+	private int[] sinks = new int[16];
+	private long[] values = new long[16];
+	private int[] next = new int[16];
+	private int[] previous = new int[16];
+
+	@Override
+	int getSource(int slot) {
+		return sources[slot];
+	}
+
+	@Override
+	int getSink(int slot) {
+		return sinks[slot];
+	}
+
+	@Override
+	long getValue(int slot) {
+		return values[slot];
+	}
+
+	@Override
+	void set(int slot, int source, int sink, long value) {
+		sources[slot] = source;
+		sinks[slot] = sink;
+		values[slot] = value;
+	}
+
+	@Override
+	void setValue(int slot, long value) {
+		values[slot] = value;
+	}
+
+	@Override
+	int getNext(int slot) {
+		return next[slot];
+	}
+
+	@Override
+	void setNext(int slot, int next) {
+		this.next[slot] = next;
+	}
+
+	@Override
+	int getPrevious(int slot) {
+		return previous[slot];
+	}
+
+	@Override
+	void setPrevious(int slot, int previous) {
+		this.previous[slot] = previous;
+	}
+
+	@Override
+	void read(FileChannel channel, long position, int slots) throws IOException {
+		ensureCapacity(slots);
+
+		// Maps a window of slots at a time, as a mapping is limited to 2 GB
+		int windowSlots = 1 << 22;
+
+		for (int first = 0; first < slots; first += windowSlots) {
+			int count = Math.min(windowSlots, slots - first);
+
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+				position + (long) first * SLOT_BYTES, (long) count * SLOT_BYTES);
+
+			for (int i = 0; i < count; i++) {
+				int offset = i * SLOT_BYTES;
+				int slot = first + i;
+
+				sources[slot] = window.getInt(offset);
+				sinks[slot] = window.getInt(offset + SINK_OFFSET);
+				values[slot] = window.getLong(offset + VALUE_OFFSET);
+				next[slot] = window.getInt(offset + NEXT_OFFSET);
+				previous[slot] = window.getInt(offset + PREVIOUS_OFFSET);
+			}
+		}
+	}
+
+	@Override
+	void ensureCapacity(int capacity) {
+		if (capacity <= sources.length) {
+			return;
+		}
+
+		int length = Math.max(capacity, sources.length * 2);
+		sources = Arrays.copyOf(sources, length);
+		sinks = Arrays.copyOf(sinks, length);
+		values = Arrays.copyOf(values, length);
+		next = Arrays.copyOf(next, length);
+		previous = Arrays.copyOf(previous, length);
+	}
+}
@@ -0,0 +1,829 @@
+package flownetter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The default netting strategy. Repeatedly nets flows between parties,
+ * cancels circular flows and removes entities with a net zero flow, until
+ * none of these change anything.
+ *
+ * Can be stopped between any two phases, leaving flows with the same
+ * source and sink aggregated. With a time budget, each round runs the
+ * phases in order of the flows they removed per nanosecond so far.
+ *
+ * Netting flows netted before only starts from the entities with flows
+ * added since, and only looks for cycles through them.
+ *
+ * Optionally, weakly connected components with few entities owing or
+ * being owed are first settled with the fewest flows possible, see
+ * {@link #setExactComponentSize(int)}.
+ *
+ * Optionally, flows below a dust threshold are set aside while the other
+ * flows are netted, and settled on their own afterwards, see
+ * {@link #setDustThreshold(long)}.
+ *
+ * Keeps state while netting, so an instance must not be shared between
+ * netters running concurrently.
+ */
+public class HeuristicNettingStrategy implements NettingStrategy {
+
+	private static final NettingPhase[] ROUND_PHASES = {
+		NettingPhase.NET_BETWEEN_PARTIES,
+		NettingPhase.REMOVE_CIRCULAR_FLOW,
+		NettingPhase.FIND_NET_ZERO_STRING,
+		NettingPhase.AGGREGATE_SAME_SOURCE_AND_SINK
+	};
+
+	private FlowCollection flowCollection;
+	
+	private CycleCanceller cycleCanceller;
+	
+	private NettingContext context;
+	
+	private boolean batched;
+	
+	private int exactComponentSize;
+	
+	private long dustThreshold;
+	
+	private int maxCycleLength = CycleCanceller.DEFAULT_MAX_CYCLE_LENGTH;
+	
+	private int maxSearchSteps = CycleCanceller.DEFAULT_MAX_SEARCH_STEPS;
+	
+	/**
+	 * In batched mode each round cancels every cycle and removes every
+	 * net zero entity that does not conflict with one already picked in
+	 * the same round, instead of just the best one. This gives far fewer
+	 * rounds on large inputs, at the cost of sometimes picking a slightly
+	 * worse combination.
+	 */
+	public void setBatched(boolean batched) {
+		this.batched = batched;
+	}
+	
+	/**
+	 * Settles each component with at most the given number of entities with
+	 * a non-zero net value by splitting them into as many groups netting to
+	 * zero as possible, which gives the fewest flows. Such components
+	 * are replaced by payments within each group, and larger components are
+	 * netted by the usual phases. The components are solved concurrently.
+	 *
+	 * The work doubles with each entity, so the size is limited to 20.
+	 * 0, the default, turns this off.
+	 */
+	public void setExactComponentSize(int exactComponentSize) {
+		if (exactComponentSize < 0 || exactComponentSize > ZeroSumPartition.MAX_BALANCES) {
+			throw new IllegalArgumentException("Component size must be between 0 and " +
+				ZeroSumPartition.MAX_BALANCES + ": " + exactComponentSize);
+		}
+		this.exactComponentSize = exactComponentSize;
+	}
+	
+	/**
+	 * Sets aside flows with a value below the threshold before the rounds,
+	 * so they are not netted one by one, and adds payments settling their
+	 * net positions afterwards. Every entity keeps its net value, but the
+	 * flows are no longer the fewest the rounds would have found: at most
+	 * one payment less than the entities with a non-zero dust position is
+	 * added back. 0, the default, turns this off.
+	 */
+	public void setDustThreshold(long dustThreshold) {
+		if (dustThreshold < 0) {
+			throw new IllegalArgumentException("Dust threshold must not be negative: " + dustThreshold);
+		}
+		this.dustThreshold = dustThreshold;
+	}
+	
+	/**
+	 * Sets the most flows in a circular flow that is looked for, 64 by
+	 * default. Longer circular flows are left in place.
+	 */
+	public void setMaxCycleLength(int maxCycleLength) {
+		if (maxCycleLength < 2) {
+			throw new IllegalArgumentException("Cycle length must be at least 2: " + maxCycleLength);
+		}
+		this.maxCycleLength = maxCycleLength;
+	}
+	
+	/**
+	 * Sets the most flows followed when looking for circular flows from a
+	 * single entity, and in total inside a strongly connected component
+	 * once a few of its entities have been searched from, 100 000 by
+	 * default. Lower values give faster rounds which may miss cycles. In
+	 * batched mode, every entity is searched from with at most 1000 steps.
+	 */
+	public void setMaxSearchSteps(int maxSearchSteps) {
+		if (maxSearchSteps < 1) {
+			throw new IllegalArgumentException("Search steps must be positive: " + maxSearchSteps);
+		}
+		this.maxSearchSteps = maxSearchSteps;
+	}
+	
+	@Override
+	public void net(FlowCollection flowCollection, NettingContext context) {
+		this.context = context;
+		
+		BitSet initialWorkList;
+		
+		if (context.isIncremental()) {
+			// Netted before, only the entities with flows added since can
+			// be netted further
+			bind(flowCollection);
+			initialWorkList = flowCollection.getDirty();
+			cycleCanceller.limitTo(initialWorkList);
+		} else {
+			initialWorkList = prepare(flowCollection);
+		}
+		
+		context.runPhase(NettingPhase.AGGREGATE_SAME_SOURCE_AND_SINK,
+			() -> aggregateSameSourceAndSink(initialWorkList));
+		
+		if (exactComponentSize > 0 && !context.isStopped()) {
+			context.runPhase(NettingPhase.EXACT_SETTLEMENT,
+				() -> settleSmallComponents(initialWorkList));
+		}
+		
+		long[] dust = dustThreshold > 0 ? new long[flowCollection.getEntities().size()] : null;
+		
+		if (dust != null) {
+			context.runPhase(NettingPhase.DUST_SETTLEMENT,
+				() -> setAsideDust(initialWorkList, dust));
+		}
+		
+		BitSet workList = initialWorkList;
+		BitSet roundWorkList = initialWorkList;
+		boolean stopped = false;
+		
+		// After the first round, only entities next to flows that changed
+		// in the previous round are looked at again
+		while (!workList.isEmpty()) {
+			if (context.isStopped()) {
+				stopped = true;
+				break;
+			}
+			
+			flowCollection.takeDirty();
+			roundWorkList = workList;
+			workList = netRound(workList);
+			context.roundCompleted();
+		}
+		
+		if (stopped) {
+			// The last round may have skipped phases for its work list, and
+			// cycles may be left anywhere the canceller still counts as
+			// cyclic. All of it is left for the next netting, which only
+			// looks at dirty entities.
+			BitSet changed = (BitSet) workList.clone();
+			changed.or(roundWorkList);
+			
+			BitSet cyclic = cycleCanceller.getCyclic();
+			
+			if (cyclic == null) {
+				changed.set(0, flowCollection.getEntities().size());
+			} else {
+				changed.or(cyclic);
+			}
+			
+			context.runPhase(NettingPhase.AGGREGATE_SAME_SOURCE_AND_SINK,
+				() -> aggregateSameSourceAndSink(changed));
+			
+			flowCollection.markDirty(changed);
+		}
+		
+		if (dust != null) {
+			boolean finished = !stopped;
+			context.runPhase(NettingPhase.DUST_SETTLEMENT,
+				() -> settleDust(dust, finished));
+		}
+	}
+
+	/**
+	 * Binds the strategy to the collection without netting it, so the
+	 * phases can be run one at a time. Returns a work list with every entity.
+	 */
+	BitSet prepare(FlowCollection flowCollection) {
+		bind(flowCollection);
+		
+		BitSet workList = new BitSet();
+		workList.set(0, flowCollection.getEntities().size());
+		
+		return workList;
+	}
+	
+	private void bind(FlowCollection flowCollection) {
+		this.flowCollection = flowCollection;
+		this.cycleCanceller = new CycleCanceller(flowCollection);
+		this.cycleCanceller.setMaxCycleLength(maxCycleLength);
+		this.cycleCanceller.setMaxSearchSteps(maxSearchSteps);
+	}
+
+	/**
+	 * Runs all netting phases on the entities in the work list and returns
+	 * the work list for the next round, which is empty when nothing more
+	 * can be done. If stopped between phases, the next work list includes
+	 * the whole work list of this round.
+	 */
+	private BitSet netRound(BitSet workList) {
+		BitSet deferred = new BitSet();
+		
+		NettingPhase[] phases = context.isTimeLimited() ? orderByYield() : ROUND_PHASES;
+
+		boolean completed = true;
+
+		for (NettingPhase phase : phases) {
+			if (context.isStopped()) {
+				completed = false;
+				break;
+			}
+			
+			context.runPhase(phase, () -> runPhase(phase, workList, deferred));
+		}
+		
+		BitSet nextWorkList = flowCollection.takeDirty();
+		nextWorkList.or(deferred);
+		
+		// Phases skipped for the work list are still to be run, even if
+		// the ones run changed nothing
+		if (!completed) {
+			nextWorkList.or(workList);
+		}
+		
+		return nextWorkList;
+	}
+	
+	private void runPhase(NettingPhase phase, BitSet workList, BitSet deferred) {
+		switch (phase) {
+		case NET_BETWEEN_PARTIES:
+			netBetweenParties(workList);
+			break;
+		case REMOVE_CIRCULAR_FLOW:
+			removeCircularFlow(workList);
+			break;
+		case FIND_NET_ZERO_STRING:
+			findNetZeroString(workList, deferred);
+			break;
+		case AGGREGATE_SAME_SOURCE_AND_SINK:
+			aggregateSameSourceAndSink(flowCollection.getDirty());
+			break;
+		default:
+			throw new IllegalArgumentException("Not a phase of a round: " + phase);
+		}
+	}
+	
+	/**
+	 * Returns the phases of a round ordered by the flows removed per
+	 * nanosecond so far. Phases not run yet come first, in their usual
+	 * order, so that every phase gets measured.
+	 */
+	private NettingPhase[] orderByYield() {
+		NettingStats stats = context.getStats();
+		NettingPhase[] phases = ROUND_PHASES.clone();
+		
+		Arrays.sort(phases, Comparator.comparingDouble((NettingPhase phase) -> {
+			if (stats.getInvocations(phase) == 0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return (double) stats.getEdgesRemoved(phase) / Math.max(1, stats.getNanos(phase));
+		}).reversed());
+		
+		return phases;
+	}
+	
+	/**
+	 * Settles the components with an entity in the work list and at most
+	 * exactComponentSize entities with a non-zero net value, where the
+	 * fewest flows settling them are fewer than the flows they have.
+	 *
+	 * Components are found by walking the flows from the work list, so
+	 * an incremental netting only visits the components of dirty entities.
+	 * A walk stops as soon as its component turns out to be too large.
+	 */
+	void settleSmallComponents(BitSet workList) {
+		// The component each visited entity was found in, counting from 1,
+		// or -1 if in a component too large to settle
+		int[] labels = new int[flowCollection.getEntities().size()];
+		
+		List<IntList> owing = new ArrayList<>();
+		List<IntList> flows = new ArrayList<>();
+		
+		for (int seed = workList.nextSetBit(0); seed >= 0; seed = workList.nextSetBit(seed + 1)) {
+			if (labels[seed] != 0) {
+				continue;
+			}
+			
+			int label = owing.size() + 1;
+			IntList componentOwing = new IntList();
+			IntList componentFlows = new IntList();
+			
+			IntList queue = new IntList();
+			queue.add(seed);
+			labels[seed] = label;
+			
+			boolean large = false;
+			
+			for (int i = 0; i < queue.size() && !large; i++) {
+				int entity = queue.get(i);
+				
+				if (flowCollection.getBalance(entity) != 0) {
+					componentOwing.add(entity);
+					large = componentOwing.size() > exactComponentSize;
+				}
+				
+				for (int sink : flowCollection.getSinks(entity)) {
+					flowCollection.addFlows(entity, sink, componentFlows);
+					large |= !visit(sink, label, labels, queue);
+				}
+				
+				for (int source : flowCollection.getSources(entity)) {
+					large |= !visit(source, label, labels, queue);
+				}
+			}
+			
+			if (large) {
+				for (int i = 0; i < queue.size(); i++) {
+					labels[queue.get(i)] = -1;
+				}
+				continue;
+			}
+			
+			// Every group has at least two entities, so at least half of
+			// them are needed as flows
+			int size = componentOwing.size();
+			
+			if (componentFlows.size() > size - size / 2) {
+				owing.add(componentOwing);
+				flows.add(componentFlows);
+			}
+		}
+		
+		List<long[]> balances = new ArrayList<>(owing.size());
+		List<ForkJoinTask<int[][]>> tasks = new ArrayList<>(owing.size());
+		
+		for (IntList entities : owing) {
+			long[] componentBalances = getBalances(entities);
+			balances.add(componentBalances);
+			tasks.add(ForkJoinTask.adapt(() -> ZeroSumPartition.partition(componentBalances)));
+		}
+		
+		ForkJoinTask.invokeAll(tasks);
+		
+		// Debtors and creditors of each group, largest amount first
+		List<FlowHeap> debtors = new ArrayList<>();
+		List<FlowHeap> creditors = new ArrayList<>();
+		
+		for (int i = 0; i < owing.size(); i++) {
+			IntList entities = owing.get(i);
+			int[][] partition = tasks.get(i).join();
+			
+			if (entities.size() - partition.length >= flows.get(i).size()) {
+				continue;
+			}
+			
+			for (int[] group : partition) {
+				FlowHeap groupDebtors = new FlowHeap(group.length, true);
+				FlowHeap groupCreditors = new FlowHeap(group.length, true);
+				
+				for (int index : group) {
+					long balance = balances.get(i)[index];
+					
+					if (balance < 0) {
+						groupDebtors.add(entities.get(index), -balance);
+					} else {
+						groupCreditors.add(entities.get(index), balance);
+					}
+				}
+				
+				debtors.add(groupDebtors);
+				creditors.add(groupCreditors);
+			}
+			
+			flowCollection.remove(flows.get(i));
+		}
+		
+		for (int i = 0; i < debtors.size(); i++) {
+			SettlementNettingStrategy.settle(flowCollection, debtors.get(i), creditors.get(i));
+		}
+	}
+	
+	/**
+	 * Adds the entity to the component being walked unless already seen.
+	 * Returns false if it was seen in another component, which can only be
+	 * one left too large, so this one is as well.
+	 */
+	private static boolean visit(int entity, int label, int[] labels, IntList queue) {
+		if (labels[entity] == 0) {
+			labels[entity] = label;
+			queue.add(entity);
+		}
+		return labels[entity] == label;
+	}
+	
+	/**
+	 * Removes the flows from entities in the work list with a value below
+	 * the dust threshold, adding their values to the dust position of each
+	 * entity.
+	 */
+	private void setAsideDust(BitSet workList, long[] dust) {
+		IntList flows = new IntList();
+		
+		for (int source = workList.nextSetBit(0); source >= 0; source = workList.nextSetBit(source + 1)) {
+			for (int sink : flowCollection.getSinks(source)) {
+				flowCollection.addFlows(source, sink, flows);
+			}
+		}
+		
+		for (int i = 0; i < flows.size(); i++) {
+			int flow = flows.get(i);
+			long value = flowCollection.getValue(flow);
+			
+			if (value < dustThreshold) {
+				dust[flowCollection.getSource(flow)] -= value;
+				dust[flowCollection.getSink(flow)] += value;
+				flowCollection.remove(flow);
+			}
+		}
+	}
+	
+	/**
+	 * Adds payments settling the dust positions, the largest first, and
+	 * merges them with flows already between the same entities. Once the
+	 * rounds have finished, the payments are not netted any further.
+	 */
+	private void settleDust(long[] dust, boolean finished) {
+		FlowHeap debtors = new FlowHeap(0, true);
+		FlowHeap creditors = new FlowHeap(0, true);
+		BitSet entities = new BitSet();
+		
+		for (int entity = 0; entity < dust.length; entity++) {
+			if (dust[entity] < 0) {
+				debtors.add(entity, -dust[entity]);
+			} else if (dust[entity] > 0) {
+				creditors.add(entity, dust[entity]);
+			} else {
+				continue;
+			}
+			entities.set(entity);
+		}
+		
+		SettlementNettingStrategy.settle(flowCollection, debtors, creditors);
+		
+		netBetweenParties(entities);
+		aggregateSameSourceAndSink(entities);
+		
+		if (finished) {
+			flowCollection.takeDirty();
+		}
+	}
+	
+	private long[] getBalances(IntList entities) {
+		long[] balances = new long[entities.size()];
+		
+		for (int i = 0; i < balances.length; i++) {
+			balances[i] = flowCollection.getBalance(entities.get(i));
+		}
+		
+		return balances;
+	}
+	
+	/**
+	 * For all entities with a net zero flow (outgoing == incoming),
+	 * finds suitable re-mapping of incoming to outgoing flows,
+	 * thus removing this String from the graph completely.
+	 * 
+	 * Max one String is removed each time this function is called, unless
+	 * running in batched mode. Entities which could have been removed but
+	 * were not are added to the deferred set.
+	 * 
+	 */
+	void findNetZeroString(BitSet workList, BitSet deferred) {
+
+		FlowReplacements bestReplacement = null;
+		List<FlowReplacements> candidates = new ArrayList<>();
+		
+		for (int entity = workList.nextSetBit(0); entity >= 0; entity = workList.nextSetBit(entity + 1)) {
+
+			if (flowCollection.getBalance(entity) != 0 || !flowCollection.hasSinks(entity)) {
+				continue;
+			}
+
+			IntList incoming = new IntList();
+			IntList outgoing = new IntList();
+			
+			for (int source : flowCollection.getSources(entity)) {
+				flowCollection.addFlows(source, entity, incoming);
+			}
+			
+			for (int sink : flowCollection.getSinks(entity)) {
+				flowCollection.addFlows(entity, sink, outgoing);
+			}
+			
+			FlowReplacements replacements = getReplacements(incoming, outgoing);
+			replacements.setEntity(entity);
+			
+			if (batched) {
+				candidates.add(replacements);
+			} else if (bestReplacement == null || 
+				bestReplacement.getSavings() < replacements.getSavings()) {
+				
+				if (bestReplacement != null) {
+					deferred.set(bestReplacement.getEntity());
+				}
+				bestReplacement = replacements;
+			} else {
+				deferred.set(entity);
+			}
+		}
+		
+		if (bestReplacement != null) {
+			apply(bestReplacement);
+		}
+		
+		if (candidates.isEmpty()) {
+			return;
+		}
+		
+		// Entities next to each other share flows, so only one of them can be
+		// removed in the same round. Pick the ones with the largest savings first.
+		candidates.sort(Comparator.comparingInt(FlowReplacements::getSavings).reversed());
+		
+		BitSet blocked = new BitSet();
+		
+		for (FlowReplacements replacements : candidates) {
+			if (blocked.get(replacements.getEntity())) {
+				deferred.set(replacements.getEntity());
+				continue;
+			}
+			
+			blocked.set(replacements.getEntity());
+			
+			IntList incoming = replacements.getIncoming();
+			for (int i = 0; i < incoming.size(); i++) {
+				blocked.set(flowCollection.getSource(incoming.get(i)));
+			}
+			
+			IntList outgoing = replacements.getOutgoing();
+			for (int i = 0; i < outgoing.size(); i++) {
+				blocked.set(flowCollection.getSink(outgoing.get(i)));
+			}
+			
+			apply(replacements);
+		}
+	}
+	
+	private void apply(FlowReplacements replacements) {
+		flowCollection.remove(replacements.getIncoming());
+		flowCollection.remove(replacements.getOutgoing());
+		
+		for (int i = 0; i < replacements.getReplacementCount(); i++) {
+			flowCollection.add(
+				replacements.getReplacementSource(i),
+				replacements.getReplacementSink(i),
+				replacements.getReplacementValue(i));
+		}
+	}
+	
+	/**
+	 * Given a list of incoming flows and a list of outgoing flows, where the
+	 * total value of the incoming flows equals the total value of the outgoing flows,
+	 * tries to find a mapping of incoming to outgoing flows using a minimum amount
+	 * of mappings.
+	 * 
+	 * For example, if incoming is:
+	 * 
+	 *  - I1 10
+	 *  - I2 20
+	 * 
+	 *  and outgoing is
+	 *  
+	 *  - O1 5
+	 *  - O2 5
+	 *  - O3 20
+	 *  
+	 *  Then an optimal mapping would be
+	 *  
+	 *  I1 -> O1 (5)
+	 *  I1 -> O2 (5)
+	 *  I2 -> O3 (20)
+	 *  
+	 *  A sub-optimal mapping would be
+	 *  
+	 *  I1 -> O3 (10)
+	 *  I2 -> O3 (10)
+	 *  I2 -> O1 (5)
+	 *  I2 -> O2 (5)
+	 * 
+	 * This is essentially a variable bin packing problem.
+	 */
+	private FlowReplacements getReplacements(IntList incoming, IntList outgoing) {
+		
+		FlowHeap incomingToProcess = new FlowHeap(incoming.size());
+		FlowHeap outgoingToProcess = new FlowHeap(outgoing.size());
+		
+		FlowReplacements flowReplacements = new FlowReplacements();
+		flowReplacements.setIncoming(incoming);
+		flowReplacements.setOutgoing(outgoing);
+		
+		for (int i = 0; i < incoming.size(); i++) {
+			int flow = incoming.get(i);
+			incomingToProcess.add(flowCollection.getSource(flow), flowCollection.getValue(flow));
+		}
+		
+		for (int i = 0; i < outgoing.size(); i++) {
+			int flow = outgoing.get(i);
+			outgoingToProcess.add(flowCollection.getSink(flow), flowCollection.getValue(flow));
+		}
+		
+		// Always matching the smallest incoming flow with the smallest outgoing flow
+		while (!incomingToProcess.isEmpty() && !outgoingToProcess.isEmpty()) {
+
+			//
+			// Create a new replacement flow
+			//
+			long flowValue = Math.min(incomingToProcess.peekValue(), outgoingToProcess.peekValue());
+			
+			flowReplacements.addReplacement(
+				incomingToProcess.peekEntity(), outgoingToProcess.peekEntity(), flowValue);
+			
+			//
+			// Reduce the value of the incoming and outgoing flow
+			//
+			incomingToProcess.reduceTop(flowValue);
+			outgoingToProcess.reduceTop(flowValue);
+		}
+		
+		return flowReplacements;
+	}
+
+	private static class FlowReplacements {
+		private int entity;
+		private IntList incoming = new IntList();
+		private IntList outgoing = new IntList();
+		
+		// The flows to add instead, column wise
+		private int replacementCount;
+		private int[] replacementSources = new int[4];
+		private int[] replacementSinks = new int[4];
+		private long[] replacementValues = new long[4];
+	
+		public int getSavings() {
+			return incoming.size() + outgoing.size() - replacementCount;
+		}
+
+		public int getEntity() {
+			return entity;
+		}
+
+		public void setEntity(int entity) {
+			this.entity = entity;
+		}
+
+		public IntList getIncoming() {
+			return incoming;
+		}
+
+		public void setIncoming(IntList incoming) {
+			this.incoming = incoming;
+		}
+
+		public IntList getOutgoing() {
+			return outgoing;
+		}
+
+		public void setOutgoing(IntList outgoing) {
+			this.outgoing = outgoing;
+		}
+
+		public int getReplacementCount() {
+			return replacementCount;
+		}
+
+		public int getReplacementSource(int index) {
+			return replacementSources[index];
+		}
+
+		public int getReplacementSink(int index) {
+			return replacementSinks[index];
+		}
+
+		public long getReplacementValue(int index) {
+			return replacementValues[index];
+		}
+
+		public void addReplacement(int source, int sink, long value) {
+			if (replacementCount == replacementSources.length) {
+				int length = replacementCount * 2;
+				replacementSources = Arrays.copyOf(replacementSources, length);
+				replacementSinks = Arrays.copyOf(replacementSinks, length);
+				replacementValues = Arrays.copyOf(replacementValues, length);
+			}
+			
+			replacementSources[replacementCount] = source;
+			replacementSinks[replacementCount] = sink;
+			replacementValues[replacementCount] = value;
+			replacementCount++;
+		}
+	}
+
+
+	/**
+	 * Tries to remove circular flow from the graph
+	 */
+	void removeCircularFlow(BitSet workList) {
+
+		if (!cycleCanceller.hasCycles(workList)) {
+			return;
+		}
+
+		// Guarantees max one flow between the same source and sink
+		aggregateSameSourceAndSink(flowCollection.getDirty());
+		
+		List<int[]> circularFlows;
+		
+		if (batched) {
+			circularFlows = cycleCanceller.findDisjointCycles();
+		} else {
+			int[] circularFlow = cycleCanceller.findBestCycle();
+			circularFlows = circularFlow.length == 0 ?
+				Collections.<int[]>emptyList() : Collections.singletonList(circularFlow);
+		}
+		
+		circularFlows.forEach(this::cancel);
+	}
+	
+	/**
+	 * Reduces all flows in the cycle by the smallest value in the cycle
+	 */
+	private void cancel(int[] circularFlow) {
+		long minValue = Long.MAX_VALUE;
+		
+		for (int flow : circularFlow) {
+			minValue = Math.min(minValue, flowCollection.getValue(flow));
+		}
+		
+		// The flows with the smallest value drop to 0 and are removed
+		for (int flow : circularFlow) {
+			flowCollection.setValue(flow, flowCollection.getValue(flow) - minValue);
+		}
+	}
+	
+	/**
+	 * Nets payments between parties
+	 */
+	void netBetweenParties(BitSet workList) {
+		for (int source = workList.nextSetBit(0); source >= 0; source = workList.nextSetBit(source + 1)) {
+			for (int sink : flowCollection.getSinks(source)) {
+		
+				// Flows to the source itself do not change its net value
+				if (sink == source) {
+					flowCollection.removeAll(source, sink);
+					continue;
+				}
+				
+				// Nothing to net unless there are flows in both directions
+				if (flowCollection.getFlow(source, sink) == -1 ||
+					flowCollection.getFlow(sink, source) == -1) {
+					continue;
+				}
+
+				// One flow with the total value in each direction
+				int flow = flowCollection.aggregate(source, sink);
+				int returnFlow = flowCollection.aggregate(sink, source);
+				
+				long value = flowCollection.getValue(flow);
+				long returnValue = flowCollection.getValue(returnFlow);
+				
+				// Keep the larger one, reduced to the net value
+				if (value > returnValue) {
+					flowCollection.setValue(flow, value - returnValue);
+					flowCollection.remove(returnFlow);
+				} else {
+					flowCollection.setValue(returnFlow, returnValue - value);
+					flowCollection.remove(flow);
+				}
+			}
+		}
+		
+	}
+
+	/**
+	 * Combines multiple flows from the same source and sink to one single flow. 
+	 */
+	void aggregateSameSourceAndSink(BitSet sources) {
+		
+		for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
+			aggregateSameSourceAndSink(source);
+		}
+	}
+	
+	private void aggregateSameSourceAndSink(int source) {
+		for (int sink : flowCollection.getSinks(source)) {
+			flowCollection.aggregate(source, sink);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package flownetter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative int keys to int values.
+ *
+ * Used for the adjacency index so that lookups neither hash Strings nor
+ * box the keys or values.
+ */
+class IntIntHashMap {
+
+	/** Returned by get for keys not in the map */
+	static final int MISSING = -1;
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	IntIntHashMap() {
+		this(4);
+	}
+
+	IntIntHashMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private IntIntHashMap(int[] keys, int[] values, int size) {
+		this.keys = keys;
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * Reads a map written by write, as is, so no keys are hashed
+	 */
+	static IntIntHashMap read(SnapshotInput in) throws IOException {
+		int capacity = in.getInt();
+		int size = in.getInt();
+
+		int[] keys = new int[capacity];
+		int[] values = new int[capacity];
+		in.getInts(keys, capacity);
+		in.getInts(values, capacity);
+
+		return new IntIntHashMap(keys, values, size);
+	}
+
+	void write(SnapshotOutput out) throws IOException {
+		out.putInt(keys.length);
+		out.putInt(size);
+		out.putInts(keys, keys.length);
+		out.putInts(values, values.length);
+	}
+
+	int get(int key) {
+		int slot = findSlot(key);
+		return keys[slot] == EMPTY ? MISSING : values[slot];
+	}
+
+	void put(int key, int value) {
+		int slot = findSlot(key);
+
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size++;
+		}
+
+		values[slot] = value;
+
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the key using backward shift deletion, so that no tombstones
+	 * are left behind in the table.
+	 */
+	void remove(int key) {
+		int mask = keys.length - 1;
+		int slot = findSlot(key);
+
+		if (keys[slot] == EMPTY) {
+			return;
+		}
+
+		size--;
+
+		int next = (slot + 1) & mask;
+
+		while (keys[next] != EMPTY) {
+			int home = EntityDictionary.mix(keys[next]) & mask;
+
+			// Move the entry back if the gap lies between its home slot and its current slot
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		keys[slot] = EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns a copy of the keys, so the map may be modified while iterating
+	 * over the result.
+	 */
+	int[] keys() {
+		int[] result = new int[size];
+		int index = 0;
+
+		for (int key : keys) {
+			if (key != EMPTY) {
+				result[index++] = key;
+			}
+		}
+
+		return result;
+	}
+
+	private int findSlot(int key) {
+		int mask = keys.length - 1;
+		int slot = EntityDictionary.mix(key) & mask;
+
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY) {
+				continue;
+			}
+
+			int slot = EntityDictionary.mix(oldKeys[i]) & mask;
+
+			while (keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+}
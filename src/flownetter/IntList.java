@@ -0,0 +1,49 @@
+package flownetter;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints, used to hold flow ids without boxing them
+ */
+class IntList {
+
+	private int[] values;
+	private int size;
+
+	IntList() {
+		this(4);
+	}
+
+	IntList(int capacity) {
+		values = new int[Math.max(1, capacity)];
+	}
+
+	void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	void addAll(int[] others) {
+		for (int value : others) {
+			add(value);
+		}
+	}
+
+	int get(int index) {
+		return values[index];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
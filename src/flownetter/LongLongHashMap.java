@@ -0,0 +1,121 @@
+package flownetter;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from non-negative long keys to long values, which only
+ * supports adding to values.
+ *
+ * The entries are kept in insertion order in arrays of their own and the
+ * hash table only holds their indexes, so iterating over the entries is a
+ * linear scan and gives the same order on every run.
+ */
+class LongLongHashMap {
+
+	private static final int EMPTY = -1;
+
+	// Index into keys and values of the entry in each slot
+	private int[] table;
+
+	private long[] keys;
+	private long[] values;
+	private int size;
+
+	LongLongHashMap() {
+		this(16);
+	}
+
+	LongLongHashMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+
+		keys = new long[capacity / 2];
+		values = new long[capacity / 2];
+	}
+
+	/**
+	 * Adds to the value of the key, which is 0 if it was not in the map
+	 */
+	void add(long key, long value) {
+		int slot = findSlot(key);
+
+		if (table[slot] != EMPTY) {
+			values[table[slot]] += value;
+			return;
+		}
+
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+
+		table[slot] = size;
+		keys[size] = key;
+		values[size] = value;
+		size++;
+
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the key of the entry inserted as number index
+	 */
+	long getKey(int index) {
+		return keys[index];
+	}
+
+	long getValue(int index) {
+		return values[index];
+	}
+
+	void clear() {
+		Arrays.fill(table, EMPTY);
+		size = 0;
+	}
+
+	private int findSlot(long key) {
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+
+		while (table[slot] != EMPTY && keys[table[slot]] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+
+		int mask = capacity - 1;
+
+		for (int index = 0; index < size; index++) {
+			int slot = hash(keys[index]) & mask;
+
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = index;
+		}
+	}
+
+	private static int hash(long key) {
+		// Folding the halves with xor would collide for keys packing two ints
+		// with the same xor, so the whole key is mixed first
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,208 @@
+package flownetter;
+
+import java.util.Arrays;
+
+/**
+ * Nets the flows optimally with respect to the total remaining value.
+ *
+ * Every entity with a negative net value has to pay that value to the
+ * entities with a positive net value, using the existing flows as routes
+ * that can carry at most their current value. Finding the routing with the
+ * smallest total value is a minimum cost flow problem with unit cost per
+ * flow, solved here with successive shortest paths using Dijkstra on
+ * reduced costs.
+ *
+ * An optimal solution never contains circular flows, so cycles are
+ * cancelled as a side effect. No new source and sink pairs are introduced,
+ * so unlike the heuristic strategy net zero entities are not routed around.
+ *
+ * Keeps state while netting, so an instance must not be shared between
+ * netters running concurrently.
+ */
+public class MinCostFlowNettingStrategy implements NettingStrategy {
+
+	private static final long UNREACHABLE = Long.MAX_VALUE;
+
+	// Residual network. Arc i goes from arcSources[i] to arcTargets[i] and
+	// arc i ^ 1 is its reverse. The outgoing arcs of node n are linked from
+	// firstArc[n] through nextArc.
+	private int nodeCount;
+	private int arcCount;
+	private int[] firstArc;
+	private int[] nextArc;
+	private int[] arcSources;
+	private int[] arcTargets;
+	private long[] capacities;
+	private int[] costs;
+
+	@Override
+	public void net(FlowCollection flowCollection, NettingContext context) {
+		// Cannot stop half way, since a partial flow leaves the balances wrong
+		if (context.isStopped()) {
+			return;
+		}
+
+		context.runPhase(NettingPhase.MIN_COST_FLOW, () -> netFlows(flowCollection));
+	}
+
+	private void netFlows(FlowCollection flowCollection) {
+		int entityCount = flowCollection.getEntities().size();
+		int superSource = entityCount;
+		int superSink = entityCount + 1;
+
+		init(entityCount + 2);
+
+		// Forward arc of every source and sink pair, in the order of the pairs
+		IntList pairArcs = new IntList();
+
+		for (int source : flowCollection.getSources()) {
+			for (int sink : flowCollection.getSinks(source)) {
+				pairArcs.add(addArc(source, sink, flowCollection.getTotalValue(source, sink), 1));
+			}
+		}
+
+		long demand = 0;
+
+		for (int entity = 0; entity < entityCount; entity++) {
+			long balance = flowCollection.getBalance(entity);
+
+			if (balance < 0) {
+				addArc(superSource, entity, -balance, 0);
+			} else if (balance > 0) {
+				addArc(entity, superSink, balance, 0);
+				demand += balance;
+			}
+		}
+
+		sendFlow(superSource, superSink, demand);
+
+		for (int i = 0; i < pairArcs.size(); i++) {
+			int arc = pairArcs.get(i);
+			int source = arcSources[arc];
+			int sink = arcTargets[arc];
+
+			// The capacity of the reverse arc is the flow sent
+			long value = capacities[arc ^ 1];
+			int flow = flowCollection.aggregate(source, sink);
+
+			if (flowCollection.getValue(flow) != value) {
+				flowCollection.setValue(flow, value);
+			}
+		}
+	}
+
+	private void init(int nodes) {
+		nodeCount = nodes;
+		arcCount = 0;
+		firstArc = new int[nodes];
+		Arrays.fill(firstArc, -1);
+
+		nextArc = new int[16];
+		arcSources = new int[16];
+		arcTargets = new int[16];
+		capacities = new long[16];
+		costs = new int[16];
+	}
+
+	/**
+	 * Adds an arc and its reverse, returning the index of the arc
+	 */
+	private int addArc(int from, int to, long capacity, int cost) {
+		if (arcCount + 2 > nextArc.length) {
+			int length = nextArc.length * 2;
+			nextArc = Arrays.copyOf(nextArc, length);
+			arcSources = Arrays.copyOf(arcSources, length);
+			arcTargets = Arrays.copyOf(arcTargets, length);
+			capacities = Arrays.copyOf(capacities, length);
+			costs = Arrays.copyOf(costs, length);
+		}
+
+		int arc = arcCount;
+		link(arc, from, to, capacity, cost);
+		link(arc + 1, to, from, 0, -cost);
+		arcCount += 2;
+
+		return arc;
+	}
+
+	private void link(int arc, int from, int to, long capacity, int cost) {
+		arcSources[arc] = from;
+		arcTargets[arc] = to;
+		capacities[arc] = capacity;
+		costs[arc] = cost;
+		nextArc[arc] = firstArc[from];
+		firstArc[from] = arc;
+	}
+
+	/**
+	 * Sends the given amount from source to sink along successive shortest
+	 * paths. Potentials keep all reduced costs non-negative, which holds
+	 * initially since no arc has a negative cost.
+	 */
+	private void sendFlow(int source, int sink, long amount) {
+		long[] potentials = new long[nodeCount];
+		long[] distances = new long[nodeCount];
+		int[] parentArcs = new int[nodeCount];
+
+		while (amount > 0) {
+			findShortestPaths(source, potentials, distances, parentArcs);
+
+			if (distances[sink] == UNREACHABLE) {
+				// Cannot happen, keeping every flow as it is is always a solution
+				throw new IllegalStateException("No route left for " + amount);
+			}
+
+			for (int node = 0; node < nodeCount; node++) {
+				if (distances[node] != UNREACHABLE) {
+					potentials[node] += distances[node];
+				}
+			}
+
+			long bottleneck = amount;
+			for (int node = sink; node != source; node = arcSources[parentArcs[node]]) {
+				bottleneck = Math.min(bottleneck, capacities[parentArcs[node]]);
+			}
+
+			for (int node = sink; node != source; node = arcSources[parentArcs[node]]) {
+				capacities[parentArcs[node]] -= bottleneck;
+				capacities[parentArcs[node] ^ 1] += bottleneck;
+			}
+
+			amount -= bottleneck;
+		}
+	}
+
+	private void findShortestPaths(int source, long[] potentials, long[] distances, int[] parentArcs) {
+		Arrays.fill(distances, UNREACHABLE);
+		distances[source] = 0;
+
+		FlowHeap queue = new FlowHeap(nodeCount);
+		queue.add(source, 0);
+
+		while (!queue.isEmpty()) {
+			int node = queue.peekEntity();
+			long distance = queue.peekValue();
+			queue.removeTop();
+
+			// Skip entries superseded by a shorter distance
+			if (distance > distances[node]) {
+				continue;
+			}
+
+			for (int arc = firstArc[node]; arc != -1; arc = nextArc[arc]) {
+				if (capacities[arc] == 0) {
+					continue;
+				}
+
+				int target = arcTargets[arc];
+				long candidate = distance + costs[arc] + potentials[node] - potentials[target];
+
+				if (candidate < distances[target]) {
+					distances[target] = candidate;
+					parentArcs[target] = arc;
+					queue.add(target, candidate);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package flownetter;
+
+import java.time.Duration;
+
+/**
+ * Passed to a {@link NettingStrategy} for a single netting run, to record
+ * how long each phase took and how much it removed, and to tell the
+ * strategy when to stop.
+ *
+ * A strategy that can stop early checks {@link #isStopped()} whenever the
+ * flows are in a consistent state, and returns if it is set.
+ */
+public class NettingContext {
+
+	private static final NettingListener NO_LISTENER = new NettingListener() {
+	};
+
+	private final FlowCollection flowCollection;
+	private final NettingListener listener;
+	private final NettingStats stats = new NettingStats();
+
+	private long startNanos;
+
+	// In System.nanoTime() terms, only used if timeLimited is set
+	private final boolean timeLimited;
+	private final long deadline;
+
+	private volatile boolean cancelled;
+
+	private final boolean incremental;
+
+	/**
+	 * @param budget the time the netting may take, or null for no limit
+	 * @param incremental whether the collection was netted by the same
+	 * strategy before
+	 */
+	NettingContext(
+			FlowCollection flowCollection,
+			NettingListener listener,
+			Duration budget,
+			boolean incremental) {
+
+		this.flowCollection = flowCollection;
+		this.listener = listener == null ? NO_LISTENER : listener;
+		this.timeLimited = budget != null;
+		this.deadline = budget == null ? 0 : System.nanoTime() + budget.toNanos();
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Returns true if the collection was netted by the same strategy
+	 * before, in which case only the entities marked dirty since need to
+	 * be looked at again
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Returns true if the time budget has run out or netting was cancelled
+	 */
+	public boolean isStopped() {
+		boolean stopped = cancelled || (timeLimited && System.nanoTime() - deadline >= 0);
+
+		if (stopped) {
+			stats.stoppedEarly();
+		}
+
+		return stopped;
+	}
+
+	/**
+	 * Returns true if netting has a time budget, in which case the phases
+	 * most likely to pay off should be run first
+	 */
+	public boolean isTimeLimited() {
+		return timeLimited;
+	}
+
+	/**
+	 * Returns the statistics recorded so far
+	 */
+	public NettingStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Makes isStopped return true, may be called from any thread
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	void started() {
+		flowCollection.resetPeakSize();
+		stats.started(flowCollection.size(), flowCollection.getTotalValue());
+		startNanos = System.nanoTime();
+	}
+
+	void completed() {
+		stats.completed(
+			flowCollection.size(),
+			flowCollection.getTotalValue(),
+			flowCollection.getPeakSize(),
+			System.nanoTime() - startNanos);
+
+		listener.nettingCompleted(stats);
+	}
+
+	/**
+	 * Runs the phase, recording its time and the number and value of
+	 * flows it removed
+	 */
+	public void runPhase(NettingPhase phase, Runnable body) {
+		int flowsBefore = flowCollection.size();
+		long valueBefore = flowCollection.getTotalValue();
+		long start = System.nanoTime();
+
+		body.run();
+
+		long nanos = System.nanoTime() - start;
+		int edgesRemoved = flowsBefore - flowCollection.size();
+		long valueCompressed = valueBefore - flowCollection.getTotalValue();
+
+		stats.phaseCompleted(phase, nanos, edgesRemoved, valueCompressed);
+		listener.phaseCompleted(phase, nanos, edgesRemoved, valueCompressed);
+	}
+
+	public void roundCompleted() {
+		stats.roundCompleted();
+		listener.roundCompleted(stats.getRounds(), flowCollection.size(), flowCollection.getTotalValue());
+	}
+}
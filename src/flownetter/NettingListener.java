@@ -0,0 +1,26 @@
+package flownetter;
+
+/**
+ * Receives progress while a {@link Netter} is netting. Called on the netting
+ * thread, so implementations should return quickly.
+ */
+public interface NettingListener {
+
+	/**
+	 * Called each time a phase has run
+	 *
+	 * @param edgesRemoved the number of flows removed, negative if flows were added
+	 * @param valueCompressed the decrease of the total value of all flows
+	 */
+	default void phaseCompleted(NettingPhase phase, long nanos, int edgesRemoved, long valueCompressed) {
+	}
+
+	/**
+	 * Called after each round of the heuristic strategy
+	 */
+	default void roundCompleted(int round, int flowCount, long totalValue) {
+	}
+
+	default void nettingCompleted(NettingStats stats) {
+	}
+}
@@ -0,0 +1,15 @@
+package flownetter;
+
+/**
+ * The steps a netting strategy reports timings and results for
+ */
+public enum NettingPhase {
+	AGGREGATE_SAME_SOURCE_AND_SINK,
+	NET_BETWEEN_PARTIES,
+	REMOVE_CIRCULAR_FLOW,
+	FIND_NET_ZERO_STRING,
+	MIN_COST_FLOW,
+	SETTLEMENT,
+	EXACT_SETTLEMENT,
+	DUST_SETTLEMENT
+}
@@ -0,0 +1,133 @@
+package flownetter;
+
+/**
+ * Statistics of a single call to {@link Netter#net()}
+ */
+public class NettingStats {
+
+	private static final int PHASES = NettingPhase.values().length;
+
+	private final long[] nanos = new long[PHASES];
+	private final long[] invocations = new long[PHASES];
+	private final long[] edgesRemoved = new long[PHASES];
+	private final long[] valueCompressed = new long[PHASES];
+
+	private int rounds;
+	private int flowsBefore;
+	private int flowsAfter;
+	private int peakFlows;
+	private long valueBefore;
+	private long valueAfter;
+	private long totalNanos;
+	private boolean stoppedEarly;
+
+	void phaseCompleted(NettingPhase phase, long nanos, int edgesRemoved, long valueCompressed) {
+		this.nanos[phase.ordinal()] += nanos;
+		this.invocations[phase.ordinal()]++;
+		this.edgesRemoved[phase.ordinal()] += edgesRemoved;
+		this.valueCompressed[phase.ordinal()] += valueCompressed;
+	}
+
+	void roundCompleted() {
+		rounds++;
+	}
+
+	void stoppedEarly() {
+		stoppedEarly = true;
+	}
+
+	void started(int flows, long value) {
+		flowsBefore = flows;
+		valueBefore = value;
+	}
+
+	void completed(int flows, long value, int peakFlows, long totalNanos) {
+		this.flowsAfter = flows;
+		this.valueAfter = value;
+		this.peakFlows = peakFlows;
+		this.totalNanos = totalNanos;
+	}
+
+	public long getNanos(NettingPhase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	public long getInvocations(NettingPhase phase) {
+		return invocations[phase.ordinal()];
+	}
+
+	public long getEdgesRemoved(NettingPhase phase) {
+		return edgesRemoved[phase.ordinal()];
+	}
+
+	public long getValueCompressed(NettingPhase phase) {
+		return valueCompressed[phase.ordinal()];
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	public int getFlowsBefore() {
+		return flowsBefore;
+	}
+
+	public int getFlowsAfter() {
+		return flowsAfter;
+	}
+
+	/**
+	 * Returns the largest number of flows held at any time while netting
+	 */
+	public int getPeakFlows() {
+		return peakFlows;
+	}
+
+	public long getValueBefore() {
+		return valueBefore;
+	}
+
+	public long getValueAfter() {
+		return valueAfter;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Returns true if netting was stopped by its time budget or cancelled
+	 * before nothing more could be removed
+	 */
+	public boolean isStoppedEarly() {
+		return stoppedEarly;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("Netted ").append(flowsBefore).append(" flows (").append(valueBefore)
+			.append(") to ").append(flowsAfter).append(" (").append(valueAfter)
+			.append(") in ").append(rounds).append(" rounds, ").append(totalNanos / 1_000_000)
+			.append(" ms, peak ").append(peakFlows).append(" flows");
+
+		if (stoppedEarly) {
+			builder.append(", stopped early");
+		}
+
+		for (NettingPhase phase : NettingPhase.values()) {
+			if (getInvocations(phase) == 0) {
+				continue;
+			}
+
+			builder.append("\n  ").append(phase).append(": ")
+				.append(getInvocations(phase)).append(" runs, ")
+				.append(getNanos(phase) / 1_000_000).append(" ms, ")
+				.append(getEdgesRemoved(phase)).append(" flows and ")
+				.append(getValueCompressed(phase)).append(" value removed");
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,15 @@
+package flownetter;
+
+/**
+ * Decides how the flows of a {@link Netter} are netted.
+ */
+public interface NettingStrategy {
+
+	/**
+	 * Nets the flows of the collection in place. The net value of every
+	 * entity must be the same afterwards.
+	 *
+	 * @param context records the phases run
+	 */
+	void net(FlowCollection flowCollection, NettingContext context);
+}
@@ -0,0 +1,80 @@
+package flownetter;
+
+/**
+ * Nets flows between the same two entities in a single pass before they
+ * are added to a {@link FlowCollection}, so the collection only indexes
+ * one flow per pair instead of every flow added.
+ *
+ * Each pair is keyed by the ids of its two entities packed into a long,
+ * the lower id first, with the value flowing from the lower to the higher
+ * id. Flows the other way subtract from it. Flows from an entity to
+ * itself do not change any net value and are dropped.
+ *
+ * A flow of Long.MIN_VALUE has no positive counterpart, so turning it
+ * around overflows. From the higher to the lower id it is kept under a
+ * key of its own, with the higher id first, and added in that direction.
+ */
+class PairNetting {
+
+	private final FlowCollection flowCollection;
+
+	private final LongLongHashMap values = new LongLongHashMap();
+
+	PairNetting(FlowCollection flowCollection) {
+		this.flowCollection = flowCollection;
+	}
+
+	EntityDictionary getEntities() {
+		return flowCollection.getEntities();
+	}
+
+	void add(Flow flow) {
+		EntityDictionary entities = flowCollection.getEntities();
+		add(entities.intern(flow.getSource()), entities.intern(flow.getSink()), flow.getValue());
+	}
+
+	void add(int source, int sink, long value) {
+		if (source < sink) {
+			values.add(pack(source, sink), value);
+		} else if (source > sink) {
+			if (value == Long.MIN_VALUE) {
+				values.add(pack(source, sink), value);
+			} else {
+				values.add(pack(sink, source), -value);
+			}
+		}
+	}
+
+	/**
+	 * Adds the net flow of every pair to the collection, in the order the
+	 * pairs were first seen, and starts over
+	 */
+	void flush() {
+		// Entities whose pairs all net to zero get no flow, but still need
+		// room for their net value
+		flowCollection.ensureEntityCapacity();
+		flowCollection.ensureCapacity(values.size());
+
+		for (int i = 0; i < values.size(); i++) {
+			long key = values.getKey(i);
+			long value = values.getValue(i);
+
+			// The lower id first, unless kept apart for Long.MIN_VALUE
+			int first = (int) (key >>> 32);
+			int second = (int) key;
+
+			// Long.MIN_VALUE has no positive counterpart and is kept as it is
+			if (value < 0 && value != Long.MIN_VALUE) {
+				flowCollection.addInput(second, first, -value);
+			} else if (value != 0) {
+				flowCollection.addInput(first, second, value);
+			}
+		}
+
+		values.clear();
+	}
+
+	private static long pack(int first, int second) {
+		return (long) first << 32 | second;
+	}
+}
@@ -0,0 +1,131 @@
+package flownetter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Nets each weakly connected component of the flows in its own
+ * {@link Netter}, running the components concurrently on a fork join pool.
+ *
+ * The result is the concatenation of the netted components, in the order
+ * the components were first seen among the added flows.
+ *
+ * With a {@link ComponentCache}, components netted before are taken from
+ * the cache instead of being netted again.
+ */
+public class ParallelNetter {
+
+	private final ForkJoinPool pool;
+	private final Supplier<Netter> netterFactory;
+
+	private ComponentCache cache;
+
+	private List<Flow> flows = new ArrayList<>();
+
+	// Flows added but not yet netted
+	private final FlowBuffer pending = new FlowBuffer();
+
+	public ParallelNetter() {
+		this(ForkJoinPool.commonPool(), Netter::new);
+	}
+
+	/**
+	 * @param pool the pool to net components on
+	 * @param netterFactory creates the netter used for each component, which
+	 * allows the component netters to be configured
+	 */
+	public ParallelNetter(ForkJoinPool pool, Supplier<Netter> netterFactory) {
+		this.pool = pool;
+		this.netterFactory = netterFactory;
+	}
+
+	/**
+	 * Sets the cache of netted components, or null for none, the default.
+	 * The cache may be shared with netters creating the same kind of
+	 * component netters.
+	 */
+	public void setCache(ComponentCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Adds a flow to net. May be called from any number of threads, also
+	 * while netting, in which case the flow is left for the next netting.
+	 */
+	public void add(Flow flow) {
+		pending.add(flow);
+	}
+
+	public List<Flow> net() {
+		pending.drain(flows::add);
+
+		List<ForkJoinTask<List<Flow>>> tasks = new ArrayList<>();
+		ComponentCache cache = this.cache;
+
+		for (List<Flow> component : ComponentSplitter.split(flows)) {
+			tasks.add(pool.submit(() -> netComponent(component, cache)));
+		}
+
+		List<Flow> result = new ArrayList<>();
+
+		for (ForkJoinTask<List<Flow>> task : tasks) {
+			result.addAll(task.join());
+		}
+
+		flows = result;
+
+		return new ArrayList<>(flows);
+	}
+
+	/**
+	 * Returns a map containing the net value for each node with a non-zero
+	 * net value. Nodes netting to zero are left out, as they may no longer
+	 * have any flows once netted.
+	 */
+	public Map<String, Long> getNets() {
+		pending.drain(flows::add);
+
+		Map<String, Long> nets = new HashMap<>();
+
+		for (Flow flow : flows) {
+			nets.merge(flow.getSink(), flow.getValue(), (oldv, newv) -> oldv + newv);
+			nets.merge(flow.getSource(), -flow.getValue(), (oldv, newv) -> oldv + newv);
+		}
+
+		nets.values().removeIf(net -> net == 0);
+
+		return nets;
+	}
+
+	private List<Flow> netComponent(List<Flow> component, ComponentCache cache) {
+		ComponentCache.Key key = null;
+
+		if (cache != null) {
+			key = ComponentCache.keyOf(component);
+			List<Flow> cached = cache.get(key);
+
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		Netter netter = netterFactory.get();
+
+		for (Flow flow : component) {
+			netter.add(flow);
+		}
+
+		List<Flow> netted = netter.net();
+
+		if (cache != null) {
+			cache.put(key, netted);
+		}
+
+		return netted;
+	}
+}
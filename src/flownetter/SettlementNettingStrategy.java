@@ -0,0 +1,54 @@
+package flownetter;
+
+/**
+ * Replaces all flows with a minimal set of payments settling the net
+ * positions, without keeping any of the original flows.
+ *
+ * The entity owing the most pays the entity owed the most, for as much as
+ * the smaller of the two, until every position is settled. Each payment
+ * settles at least one entity, so at most N - 1 flows are created for N
+ * entities, in O(N log N) time.
+ */
+public class SettlementNettingStrategy implements NettingStrategy {
+
+	@Override
+	public void net(FlowCollection flowCollection, NettingContext context) {
+		context.runPhase(NettingPhase.SETTLEMENT, () -> netFlows(flowCollection));
+	}
+
+	private void netFlows(FlowCollection flowCollection) {
+		int entityCount = flowCollection.getEntities().size();
+
+		FlowHeap debtors = new FlowHeap(entityCount, true);
+		FlowHeap creditors = new FlowHeap(entityCount, true);
+
+		for (int entity = 0; entity < entityCount; entity++) {
+			long balance = flowCollection.getBalance(entity);
+
+			if (balance < 0) {
+				debtors.add(entity, -balance);
+			} else if (balance > 0) {
+				creditors.add(entity, balance);
+			}
+		}
+
+		flowCollection.clear();
+
+		settle(flowCollection, debtors, creditors);
+	}
+
+	/**
+	 * Adds payments from the debtors to the creditors, held in heaps with
+	 * the largest amount first, until one of them is empty
+	 */
+	static void settle(FlowCollection flowCollection, FlowHeap debtors, FlowHeap creditors) {
+		while (!debtors.isEmpty() && !creditors.isEmpty()) {
+			long value = Math.min(debtors.peekValue(), creditors.peekValue());
+
+			flowCollection.add(debtors.peekEntity(), creditors.peekEntity(), value);
+
+			debtors.reduceTop(value);
+			creditors.reduceTop(value);
+		}
+	}
+}
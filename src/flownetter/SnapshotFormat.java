@@ -0,0 +1,50 @@
+package flownetter;
+
+/**
+ * Layout of a snapshot of a {@link FlowCollection}, all numbers big endian:
+ *
+ * <pre>
+ * int    magic, "FLNS"
+ * int    version
+ * int    number of entities
+ *        per entity: int length, then the name in UTF-8
+ *        per entity: long incoming value
+ *        per entity: long outgoing value
+ *        per entity: long input balance
+ *        per entity: index of its flows by source, see below
+ *        per entity: index of its flows by sink, see below
+ * int    number of slots used
+ * int    number of flows
+ * int    first free slot, or -1
+ * long   total value
+ *        per slot: int source, int sink, long value, int next, int previous
+ * </pre>
+ *
+ * Entity ids index the names in the order written. The slots are padded
+ * with empty slots to whole pages of 2^PAGE_SHIFT slots, so each page can
+ * be mapped as a page of a {@link DirectFlowStore}.
+ *
+ * An index is an int, 0 if the entity has no flows in that direction.
+ * Otherwise it is 1, followed by the hash table of the counterparties of
+ * the entity: int capacity, int size, then capacity int keys and
+ * capacity int values. Writing the tables as they are means restoring
+ * does not hash anything but the entity names.
+ */
+final class SnapshotFormat {
+
+	static final int MAGIC = 0x464C4E53;
+
+	static final int VERSION = 1;
+
+	static final int PAGE_SHIFT = 16;
+
+	private SnapshotFormat() {
+	}
+
+	/**
+	 * Returns the number of pages holding the given number of slots
+	 */
+	static int pages(int slots) {
+		return (int) (((long) slots + (1 << PAGE_SHIFT) - 1) >>> PAGE_SHIFT);
+	}
+}
@@ -0,0 +1,97 @@
+package flownetter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the big endian numbers of a snapshot from a file through a
+ * buffer, copying arrays of numbers in bulk. Keeps track of the position
+ * in the file, so that later parts can be mapped instead of read.
+ */
+class SnapshotInput {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	// Position in the file of the end of the buffered bytes
+	private long filePosition;
+
+	SnapshotInput(FileChannel channel) {
+		this.channel = channel;
+		buffer.limit(0);
+	}
+
+	/**
+	 * Returns the position in the file of the next byte to read
+	 */
+	long position() {
+		return filePosition - buffer.remaining();
+	}
+
+	int getInt() throws IOException {
+		require(Integer.BYTES);
+		return buffer.getInt();
+	}
+
+	long getLong() throws IOException {
+		require(Long.BYTES);
+		return buffer.getLong();
+	}
+
+	void get(byte[] bytes) throws IOException {
+		for (int offset = 0; offset < bytes.length; ) {
+			require(1);
+			int count = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.get(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	void getInts(int[] values, int length) throws IOException {
+		for (int offset = 0; offset < length; ) {
+			require(Integer.BYTES);
+			int count = Math.min(buffer.remaining() / Integer.BYTES, length - offset);
+			buffer.asIntBuffer().get(values, offset, count);
+			buffer.position(buffer.position() + count * Integer.BYTES);
+			offset += count;
+		}
+	}
+
+	void getLongs(long[] values, int length) throws IOException {
+		for (int offset = 0; offset < length; ) {
+			require(Long.BYTES);
+			int count = Math.min(buffer.remaining() / Long.BYTES, length - offset);
+			buffer.asLongBuffer().get(values, offset, count);
+			buffer.position(buffer.position() + count * Long.BYTES);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Reads more of the file until at least the given number of bytes are
+	 * buffered
+	 */
+	private void require(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+
+		buffer.compact();
+
+		while (buffer.position() < bytes) {
+			int read = channel.read(buffer, filePosition);
+
+			if (read < 0) {
+				throw new EOFException("Unexpected end of snapshot at byte " + filePosition);
+			}
+
+			filePosition += read;
+		}
+
+		buffer.flip();
+	}
+}
@@ -0,0 +1,81 @@
+package flownetter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the big endian numbers of a snapshot to a channel through a
+ * buffer, copying arrays of numbers in bulk.
+ */
+class SnapshotOutput implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	SnapshotOutput(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	void putInt(int value) throws IOException {
+		ensure(Integer.BYTES);
+		buffer.putInt(value);
+	}
+
+	void putLong(long value) throws IOException {
+		ensure(Long.BYTES);
+		buffer.putLong(value);
+	}
+
+	void put(byte[] bytes) throws IOException {
+		for (int offset = 0; offset < bytes.length; ) {
+			ensure(1);
+			int count = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	void putInts(int[] values, int length) throws IOException {
+		for (int offset = 0; offset < length; ) {
+			ensure(Integer.BYTES);
+			int count = Math.min(buffer.remaining() / Integer.BYTES, length - offset);
+			buffer.asIntBuffer().put(values, offset, count);
+			buffer.position(buffer.position() + count * Integer.BYTES);
+			offset += count;
+		}
+	}
+
+	void putLongs(long[] values, int length) throws IOException {
+		for (int offset = 0; offset < length; ) {
+			ensure(Long.BYTES);
+			int count = Math.min(buffer.remaining() / Long.BYTES, length - offset);
+			buffer.asLongBuffer().put(values, offset, count);
+			buffer.position(buffer.position() + count * Long.BYTES);
+			offset += count;
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
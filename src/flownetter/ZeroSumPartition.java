@@ -0,0 +1,88 @@
+package flownetter;
+
+/**
+ * Splits non-zero balances summing to zero into as many groups summing to
+ * zero as possible. Settling each group on its own takes one payment less
+ * than its size, so this gives the fewest payments settling all balances.
+ *
+ * Exact, using dynamic programming over all subsets, so only feasible for
+ * a few balances: time is O(N 2^N) and memory 9 * 2^N bytes.
+ */
+class ZeroSumPartition {
+
+	/** Largest number of balances accepted */
+	static final int MAX_BALANCES = 20;
+
+	private ZeroSumPartition() {
+	}
+
+	/**
+	 * Returns the groups, as indexes into the balances
+	 */
+	static int[][] partition(long[] balances) {
+		int n = balances.length;
+
+		if (n > MAX_BALANCES) {
+			throw new IllegalArgumentException("Too many balances: " + n);
+		}
+
+		int full = (1 << n) - 1;
+
+		// groups[mask] is the largest number of zero sum groups the balances
+		// in mask can be split into, where a remainder not summing to zero
+		// is allowed. Adding balances one at a time, a group is completed
+		// each time the sum so far is zero.
+		long[] sums = new long[full + 1];
+		byte[] groups = new byte[full + 1];
+
+		for (int mask = 1; mask <= full; mask++) {
+			int lowest = Integer.numberOfTrailingZeros(mask);
+			sums[mask] = sums[mask & (mask - 1)] + balances[lowest];
+
+			int best = 0;
+			for (int rest = mask; rest != 0; rest &= rest - 1) {
+				best = Math.max(best, groups[mask & ~(rest & -rest)]);
+			}
+
+			groups[mask] = (byte) (sums[mask] == 0 ? best + 1 : best);
+		}
+
+		return collect(balances, sums, groups);
+	}
+
+	/**
+	 * Walks back from the full set, removing a balance which keeps the most
+	 * groups each step. The balances removed between two masks summing to
+	 * zero form a group.
+	 */
+	private static int[][] collect(long[] balances, long[] sums, byte[] groups) {
+		int[][] result = new int[groups[groups.length - 1]][];
+		int count = 0;
+
+		IntList group = new IntList();
+
+		for (int mask = groups.length - 1; mask != 0; ) {
+			int target = sums[mask] == 0 ? groups[mask] - 1 : groups[mask];
+
+			int removed = -1;
+			for (int rest = mask; rest != 0; rest &= rest - 1) {
+				int index = Integer.numberOfTrailingZeros(rest);
+
+				if (groups[mask & ~(1 << index)] == target) {
+					removed = index;
+					break;
+				}
+			}
+
+			group.add(removed);
+			mask &= ~(1 << removed);
+
+			if (sums[mask] == 0) {
+				result[count++] = group.toArray();
+				group = new IntList();
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,154 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import flownetter.Flow;
+import flownetter.FlowLoader;
+import flownetter.Netter;
+
+
+public class FlowLoaderTest {
+
+	private Path file;
+
+	private ForkJoinPool pool;
+
+	private FlowLoader loader;
+
+	@Before
+	public void before() throws IOException {
+		file = Files.createTempFile("flows", ".dat");
+		pool = new ForkJoinPool(4);
+		loader = new FlowLoader(pool);
+	}
+
+	@After
+	public void after() throws IOException {
+		pool.shutdown();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void delimitedGivesSameResultAsAddingFlows() throws IOException {
+		List<Flow> flows = randomFlows();
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("source;sink;value\n");
+
+			for (int i = 0; i < flows.size(); i++) {
+				Flow flow = flows.get(i);
+				writer.write(flow.getSource() + ";" + flow.getSink() + ";" + flow.getValue());
+				writer.write(i % 3 == 0 ? "\r\n" : "\n");
+
+				if (i % 100 == 0) {
+					writer.write("\n");
+				}
+			}
+		}
+
+		// Small chunks, so that many lines cross a nominal chunk boundary
+		loader.setChunkSize(1000);
+		loader.setDelimiter(';');
+		loader.setHeader(true);
+
+		verifyLoaded(flows);
+	}
+
+	@Test
+	public void binaryGivesSameResultAsAddingFlows() throws IOException {
+		List<Flow> flows = randomFlows();
+		List<String> names = new ArrayList<>();
+
+		for (Flow flow : flows) {
+			if (!names.contains(flow.getSource())) {
+				names.add(flow.getSource());
+			}
+			if (!names.contains(flow.getSink())) {
+				names.add(flow.getSink());
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file)))) {
+
+			out.writeInt(0x464C4F57);
+			out.writeInt(1);
+			out.writeInt(names.size());
+
+			for (String name : names) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeLong(flows.size());
+
+			for (Flow flow : flows) {
+				out.writeInt(names.indexOf(flow.getSource()));
+				out.writeInt(names.indexOf(flow.getSink()));
+				out.writeLong(flow.getValue());
+			}
+		}
+
+		Netter netter = new Netter();
+		loader.loadBinary(file, netter);
+
+		assertEquals(net(flows), toStrings(netter.net()));
+	}
+
+	@Test(expected = IOException.class)
+	public void malformedLineRejected() throws IOException {
+		Files.write(file, "a,b,10\nc,d\n".getBytes(StandardCharsets.UTF_8));
+
+		loader.loadDelimited(file, new Netter());
+	}
+
+	private void verifyLoaded(List<Flow> flows) throws IOException {
+		Netter netter = new Netter();
+		loader.loadDelimited(file, netter);
+
+		assertEquals(net(flows), toStrings(netter.net()));
+	}
+
+	private List<String> net(List<Flow> flows) {
+		Netter netter = new Netter();
+		flows.forEach(netter::add);
+		return toStrings(netter.net());
+	}
+
+	private List<Flow> randomFlows() {
+		Random random = new Random(3);
+		List<Flow> flows = new ArrayList<>();
+
+		for (int i = 0; i < 3000; i++) {
+			flows.add(new Flow(
+				"e" + random.nextInt(300), "\u00e9" + random.nextInt(300), 1 + random.nextInt(1000)));
+		}
+
+		return flows;
+	}
+
+	private List<String> toStrings(List<Flow> flows) {
+		List<String> strings = new ArrayList<>();
+
+		for (Flow flow : flows) {
+			strings.add(flow.getSource() + " -> " + flow.getSink() + " " + flow.getValue());
+		}
+
+		return strings;
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import flownetter.Flow;
+import flownetter.FlowLoader;
+import flownetter.FlowWriter;
+import flownetter.Netter;
+
+
+public class FlowWriterTest {
+
+	private Path file;
+
+	private FlowWriter writer;
+
+	private Netter netter;
+
+	@Before
+	public void before() throws IOException {
+		file = Files.createTempFile("flows", ".dat");
+		writer = new FlowWriter();
+		netter = new Netter();
+	}
+
+	@After
+	public void after() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void delimitedLines() throws IOException {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("x", "y", -9223372036854775808L));
+		netter.netInPlace();
+
+		writer.setDelimiter(';');
+		writer.setHeader(true);
+		writer.writeDelimited(netter, file);
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+		assertEquals(
+			Arrays.asList("source;sink;value", "a;c;10", "x;y;-9223372036854775808"),
+			sortBody(lines));
+	}
+
+	@Test
+	public void delimitedReadBackByLoader() throws IOException {
+		addRandomFlows();
+		List<Flow> netted = netter.net();
+
+		writer.writeDelimited(netter, file);
+
+		Netter loaded = readBackNetter();
+		new FlowLoader().loadDelimited(file, loaded);
+
+		assertEquals(toStrings(netted), toStrings(loaded.net()));
+	}
+
+	@Test
+	public void binaryReadBackByLoader() throws IOException {
+		addRandomFlows();
+		List<Flow> netted = netter.net();
+
+		writer.writeBinary(netter, file);
+
+		Netter loaded = readBackNetter();
+		new FlowLoader().loadBinary(file, loaded);
+
+		assertEquals(toStrings(netted), toStrings(loaded.net()));
+		assertEquals(netter.getNets(), loaded.getNets());
+	}
+
+	/**
+	 * Returns a netter leaving the flows read back as they are, so they can
+	 * be compared with the ones written
+	 */
+	private Netter readBackNetter() {
+		Netter loaded = new Netter();
+		loaded.setStrategy((flowCollection, context) -> { });
+		return loaded;
+	}
+
+	private void addRandomFlows() {
+		Random random = new Random(11);
+
+		for (int i = 0; i < 50000; i++) {
+			netter.add(new Flow(
+				"e" + random.nextInt(20000), "e" + random.nextInt(20000), 1 + random.nextInt(1000)));
+		}
+	}
+
+	private List<String> sortBody(List<String> lines) {
+		List<String> sorted = new ArrayList<>(lines.subList(1, lines.size()));
+		sorted.sort(null);
+		sorted.add(0, lines.get(0));
+		return sorted;
+	}
+
+	private List<String> toStrings(List<Flow> flows) {
+		List<String> strings = new ArrayList<>();
+
+		for (Flow flow : flows) {
+			strings.add(flow.getSource() + " -> " + flow.getSink() + " " + flow.getValue());
+		}
+
+		strings.sort(null);
+		return strings;
+	}
+}
@@ -1,13 +1,32 @@
 import static org.junit.Assert.assertEquals;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import flownetter.Flow;
+import flownetter.FlowStorage;
+import flownetter.HeuristicNettingStrategy;
+import flownetter.MinCostFlowNettingStrategy;
 import flownetter.Netter;
+import flownetter.NettingListener;
+import flownetter.NettingPhase;
+import flownetter.NettingStats;
+import flownetter.SettlementNettingStrategy;
 
 
 public class NetterTest {
@@ -118,6 +137,74 @@ public class NetterTest {
 		verifyHas(flows, new Flow("e", "a", 2));
 	}
 	
+	@Test
+	public void equallyGoodCyclesSmallestValueFirst() {
+		netter.add(new Flow("e5", "e1", 2));
+		netter.add(new Flow("e1", "e2", 5));
+		netter.add(new Flow("e2", "e1", 20));
+		netter.add(new Flow("e1", "e0", 6));
+		netter.add(new Flow("e1", "e4", 14));
+		netter.add(new Flow("e4", "e2", 6));
+		netter.add(new Flow("e0", "e4", 1));
+		netter.add(new Flow("e3", "e4", 6));
+		netter.add(new Flow("e4", "e5", 8));
+		netter.add(new Flow("e0", "e2", 19));
+		netter.add(new Flow("e4", "e3", 6));
+		netter.add(new Flow("e2", "e3", 2));
+		netter.add(new Flow("e3", "e1", 19));
+
+		Map<String, Long> netBefore = netter.getNets();
+
+		List<Flow> flows = netter.net();
+
+		// Breaking ties between cycles on the larger value cancelled leaves
+		// 7 flows, and in the order the first search found them in 6
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(5, flows.size());
+	}
+
+	@Test
+	public void tiesBrokenInOrderEntitiesFirstSeen() {
+		Random random = new Random(3);
+		List<int[]> input = new ArrayList<>();
+		
+		// Small values give many equally good choices
+		for (int i = 0; i < 40; i++) {
+			input.add(new int[] { random.nextInt(12), random.nextInt(12), 1 + random.nextInt(5) });
+		}
+		
+		String[] names = new String[12];
+		String[] renamed = new String[12];
+		Map<String, String> original = new HashMap<>();
+		
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "e" + i;
+			renamed[i] = "entity " + (names.length - i);
+			original.put(renamed[i], names[i]);
+		}
+		
+		List<String> flows = toStrings(netNamed(input, names));
+		List<String> renamedFlows = new ArrayList<>();
+		
+		for (Flow flow : netNamed(input, renamed)) {
+			renamedFlows.add(original.get(flow.getSource()) + " -> " +
+				original.get(flow.getSink()) + " " + flow.getValue());
+		}
+		
+		// The same choices are made whatever the names sort or hash to
+		assertEquals(flows, renamedFlows);
+	}
+	
+	private List<Flow> netNamed(List<int[]> input, String[] names) {
+		Netter namedNetter = new Netter();
+		
+		for (int[] flow : input) {
+			namedNetter.add(new Flow(names[flow[0]], names[flow[1]], flow[2]));
+		}
+		
+		return namedNetter.net();
+	}
+	
 	@Test
 	public void removeNetZeroEntities() {
 		netter.add(new Flow("a", "b", 100));
@@ -151,6 +238,728 @@ public class NetterTest {
 		verifyHas(flows, new Flow("a4", "c3", 100));
 	}
 	
+	@Test
+	public void longChainOfNetZeroEntities() {
+		for (int i = 0; i < 200; i++) {
+			netter.add(new Flow("e" + i, "e" + (i + 1), 50));
+		}
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("e0", "e200", 50));
+	}
+	
+	@Test
+	public void netsUnchangedByNetting() {
+		netter.add(new Flow("a", "b", 30));
+		netter.add(new Flow("b", "c", 20));
+		netter.add(new Flow("c", "a", 5));
+		netter.add(new Flow("c", "d", 12));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(Long.valueOf(12), netter.getNets().get("d"));
+	}
+	
+	@Test(timeout = 10000)
+	public void denseCircularFlows() {
+		Random random = new Random(42);
+		
+		for (int i = 0; i < 30; i++) {
+			for (int j = 0; j < 30; j++) {
+				if (i != j) {
+					netter.add(new Flow("e" + i, "e" + j, 1 + random.nextInt(1000)));
+				}
+			}
+		}
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		Assert.assertTrue(flows.size() <= 30 * 29 / 2);
+	}
+	
+	@Test
+	public void zeroBudgetKeepsNetsAndAggregates() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("a", "b", 5));
+		netter.add(new Flow("b", "c", 15));
+		netter.add(new Flow("c", "a", 15));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net(Duration.ZERO);
+		
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(3, flows.size());
+		verifyHas(flows, new Flow("a", "b", 15));
+		Assert.assertTrue(netter.getStats().isStoppedEarly());
+		assertEquals(0, netter.getStats().getRounds());
+	}
+	
+	@Test
+	public void budgetLargeEnoughToFinish() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("c", "a", 10));
+		netter.add(new Flow("c", "d", 5));
+		
+		List<Flow> flows = netter.net(Duration.ofMinutes(1));
+		
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("c", "d", 5));
+		Assert.assertFalse(netter.getStats().isStoppedEarly());
+	}
+	
+	@Test
+	public void cancelKeepsNetsAndLeavesWorkForNextNetting() {
+		netter.setListener(new NettingListener() {
+			@Override
+			public void roundCompleted(int round, int flowCount, long totalValue) {
+				netter.cancel();
+			}
+		});
+		
+		for (int i = 0; i < 100; i++) {
+			netter.add(new Flow("e" + i, "e" + (i + 1), 50));
+		}
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(1, netter.getStats().getRounds());
+		Assert.assertTrue(netter.getStats().isStoppedEarly());
+		
+		netter.setListener(new NettingListener() { });
+		List<Flow> flows = netter.net();
+		
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("e0", "e100", 50));
+		Assert.assertFalse(netter.getStats().isStoppedEarly());
+	}
+	
+	@Test(timeout = 10000)
+	public void concurrentAddsWhileNetting() throws InterruptedException {
+		Map<String, Long> expectedNets = new ConcurrentHashMap<>();
+		List<Thread> producers = new ArrayList<>();
+		
+		for (int t = 0; t < 4; t++) {
+			Random random = new Random(t);
+			
+			producers.add(new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					Flow flow = new Flow(
+						"e" + random.nextInt(20), "e" + random.nextInt(20), 1 + random.nextInt(1000));
+					
+					expectedNets.merge(flow.getSink(), flow.getValue(), Long::sum);
+					expectedNets.merge(flow.getSource(), -flow.getValue(), Long::sum);
+					netter.add(flow);
+				}
+			}));
+		}
+		
+		producers.forEach(Thread::start);
+		
+		while (producers.stream().anyMatch(Thread::isAlive)) {
+			netter.net();
+		}
+		
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		
+		netter.net();
+		
+		assertEquals(expectedNets, netter.getNets());
+	}
+	
+	@Test
+	public void directStorageGivesSameResult() {
+		Netter directNetter = new Netter(FlowStorage.DIRECT);
+		Random random = new Random(7);
+		
+		for (int i = 0; i < 2000; i++) {
+			Flow flow = new Flow(
+				"e" + random.nextInt(200), "e" + random.nextInt(200), 1 + random.nextInt(1000));
+			
+			netter.add(flow);
+			directNetter.add(flow);
+		}
+		
+		assertEquals(toStrings(netter.net()), toStrings(directNetter.net()));
+		assertEquals(netter.getNets(), directNetter.getNets());
+	}
+	
+	@Test
+	public void parallelCycleSearchGivesSameResult() throws InterruptedException, ExecutionException {
+		List<Flow> flows = new ArrayList<>();
+		Random random = new Random(5);
+		
+		// Enough cyclic entities for the search to be split into several tasks
+		for (int c = 0; c < 3000; c++) {
+			for (int i = 0; i < 12; i++) {
+				flows.add(new Flow(
+					c + "_" + random.nextInt(5), c + "_" + random.nextInt(5), 1 + random.nextInt(100)));
+			}
+		}
+		
+		assertEquals(toStrings(netWithThreads(flows, 1)), toStrings(netWithThreads(flows, 4)));
+	}
+	
+	@Test
+	public void parallelCycleSearchOfOneLargeComponent() throws InterruptedException, ExecutionException {
+		List<Flow> flows = new ArrayList<>();
+		Random random = new Random(9);
+		
+		// Mostly a single strongly connected component, large enough for
+		// each search from it to get a task of its own
+		for (int i = 0; i < 450; i++) {
+			flows.add(new Flow(
+				"e" + random.nextInt(150), "e" + random.nextInt(150), 1 + random.nextInt(1000)));
+		}
+		
+		assertEquals(toStrings(netWithThreads(flows, 1)), toStrings(netWithThreads(flows, 4)));
+	}
+	
+	private List<Flow> netWithThreads(List<Flow> flows, int threads)
+			throws InterruptedException, ExecutionException {
+		Netter threadNetter = new Netter();
+		flows.forEach(threadNetter::add);
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.submit(() -> threadNetter.net()).get();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void restoredFromSnapshotGivesSameResult() throws IOException {
+		Random random = new Random(11);
+		
+		for (int i = 0; i < 2000; i++) {
+			netter.add(new Flow("e" + random.nextInt(200), "e" + random.nextInt(200), 1 + random.nextInt(1000)));
+		}
+		netter.net();
+		
+		// Some flows not netted yet, and an entity without flows
+		for (int i = 0; i < 100; i++) {
+			netter.add(new Flow("e" + random.nextInt(200), "e" + random.nextInt(200), 1 + random.nextInt(1000)));
+		}
+		netter.add(new Flow("x", "x", 1));
+		
+		Path file = Files.createTempFile("netter", ".snapshot");
+		
+		try {
+			netter.snapshot(file);
+			
+			Netter heapNetter = Netter.restore(file);
+			Netter directNetter = Netter.restore(file, FlowStorage.DIRECT);
+			
+			assertEquals(netter.getNets(), heapNetter.getNets());
+			assertEquals(netter.getNets(), directNetter.getNets());
+			
+			Flow flow = new Flow("e1", "new", 50);
+			netter.add(flow);
+			heapNetter.add(flow);
+			directNetter.add(flow);
+			
+			List<String> expected = toStrings(netter.net());
+			
+			assertEquals(expected, toStrings(heapNetter.net()));
+			assertEquals(expected, toStrings(directNetter.net()));
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void batchedTwoCircularDependenciesBothCanBeRemoved() {
+		setBatched();
+		
+		twoCircularDependenciesBothCanBeRemoved();
+	}
+	
+	@Test
+	public void batchedBestNetZeroReplacements() {
+		setBatched();
+		
+		bestNetZeroReplacements();
+	}
+	
+	@Test
+	public void batchedDisjointCircularDependencies() {
+		setBatched();
+		
+		for (int i = 0; i < 50; i++) {
+			netter.add(new Flow("a" + i, "b" + i, 10 + i));
+			netter.add(new Flow("b" + i, "c" + i, 10 + i));
+			netter.add(new Flow("c" + i, "a" + i, 10 + i));
+		}
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(0, flows.size());
+	}
+	
+	@Test
+	public void batchedDenseComponentInFewRounds() {
+		setBatched();
+		Random random = new Random(1);
+		
+		// Mostly a single strongly connected component, where one cycle per
+		// round takes over a hundred rounds
+		for (int i = 0; i < 400; i++) {
+			netter.add(new Flow("e" + random.nextInt(100), "e" + random.nextInt(100), 1 + random.nextInt(1000)));
+		}
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		Assert.assertTrue(netter.getStats().getRounds() <= 30);
+	}
+	
+	@Test
+	public void batchedLongChainOfNetZeroEntities() {
+		setBatched();
+		
+		longChainOfNetZeroEntities();
+	}
+	
+	@Test
+	public void netAgainAfterAddingFlows() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.net();
+		
+		netter.add(new Flow("c", "a", 10));
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(0, flows.size());
+	}
+	
+	@Test
+	public void exactSettlementSkipsLargerComponents() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setExactComponentSize(5);
+		netter.setStrategy(strategy);
+		
+		twoCircularDependenciesOnlyOneCanBeRemoved();
+	}
+	
+	@Test
+	public void exactSettlementFindsZeroSumGroups() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setExactComponentSize(6);
+		netter.setStrategy(strategy);
+		
+		netter.add(new Flow("a", "b", 20));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("c", "d", 8));
+		netter.add(new Flow("d", "e", 9));
+		netter.add(new Flow("e", "a", 10));
+		netter.add(new Flow("b", "f", 20));
+		netter.add(new Flow("f", "g", 20));
+		netter.add(new Flow("g", "a", 21));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net();
+		
+		// Six entities owe or are owed, in two groups of three netting to zero
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(4, flows.size());
+		verifyHas(flows, new Flow("b", "a", 10));
+	}
+	
+	@Test
+	public void dustSettledAfterOtherFlows() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setDustThreshold(5);
+		netter.setStrategy(strategy);
+		
+		netter.add(new Flow("a", "b", 100));
+		netter.add(new Flow("b", "c", 100));
+		netter.add(new Flow("c", "d", 1));
+		netter.add(new Flow("d", "b", 2));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net();
+		
+		// b is removed from the other flows, and is owed 2 by the dust
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(3, flows.size());
+		verifyHas(flows, new Flow("a", "c", 100));
+		verifyHas(flows, new Flow("c", "b", 1));
+		verifyHas(flows, new Flow("d", "b", 1));
+	}
+
+	@Test
+	public void cycleLongerThanMaxCycleLengthLeft() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setMaxCycleLength(4);
+		netter.setStrategy(strategy);
+
+		// Every entity in the cycle of five is owed 1, so none has a net
+		// zero flow that could shorten the cycle
+		for (int i = 0; i < 5; i++) {
+			netter.add(new Flow("e" + i, "e" + (i + 1) % 5, 10));
+			netter.add(new Flow("s" + i, "e" + i, 1));
+		}
+
+		assertEquals(10, netter.net().size());
+
+		netter.setStrategy(new HeuristicNettingStrategy());
+
+		assertEquals(5, netter.net().size());
+	}
+
+	@Test
+	public void exactSettlementOfAddedComponent() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setExactComponentSize(4);
+		netter.setStrategy(strategy);
+		
+		netter.add(new Flow("a", "b", 5));
+		netter.add(new Flow("b", "c", 5));
+		netter.net();
+		
+		netter.add(new Flow("d", "e", 3));
+		netter.add(new Flow("e", "f", 3));
+		List<Flow> flows = netter.net();
+		
+		assertEquals(2, flows.size());
+		verifyHas(flows, new Flow("a", "c", 5));
+		verifyHas(flows, new Flow("d", "f", 3));
+	}
+	
+	@Test
+	public void pairsNettedBeforeNetting() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "a", 4));
+		netter.add(new Flow("a", "a", 5));
+		netter.add(new Flow("a", "b", 1));
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(1, netter.getStats().getFlowsBefore());
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("a", "b", 7));
+	}
+
+	@Test
+	public void pairsCancellingBeforeNetting() {
+		// More entities than the collection has room for initially, each
+		// only in payments reversed before netting
+		for (int batch = 0; batch < 2; batch++) {
+			for (int i = 0; i < 20; i++) {
+				netter.add(new Flow("e" + batch + "_" + i, "f" + batch + "_" + i, 10));
+				netter.add(new Flow("f" + batch + "_" + i, "e" + batch + "_" + i, 10));
+			}
+			
+			assertEquals(0, netter.net().size());
+			assertEquals(Long.valueOf(0), netter.getNets().get("e" + batch + "_19"));
+		}
+	}
+
+	@Test
+	public void minValueAgainstPairOrderKept() {
+		netter.add(new Flow("a", "b", 1));
+		netter.add(new Flow("b", "a", Long.MIN_VALUE));
+		netter.add(new Flow("a", "c", 5));
+		
+		// No flow is lost while moving them into the collection, and the
+		// nets wrap around like any sum past the range of a long
+		Map<String, Long> nets = netter.getNets();
+		
+		assertEquals(Long.valueOf(Long.MIN_VALUE - 6), nets.get("a"));
+		assertEquals(Long.valueOf(1 - Long.MIN_VALUE), nets.get("b"));
+		assertEquals(Long.valueOf(5), nets.get("c"));
+	}
+	
+	@Test
+	public void netAgainAfterStoppingEarly() {
+		zeroBudgetKeepsNetsAndAggregates();
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(0, flows.size());
+		Assert.assertFalse(netter.getStats().isStoppedEarly());
+	}
+
+	@Test
+	public void netAgainAfterCancellingMatchesUninterrupted() {
+		Netter uninterrupted = new Netter();
+		
+		for (Netter each : Arrays.asList(netter, uninterrupted)) {
+			each.add(new Flow("a", "b", 10));
+			each.add(new Flow("b", "c", 10));
+			each.add(new Flow("c", "a", 10));
+			each.add(new Flow("x", "y", 5));
+			each.add(new Flow("y", "z", 5));
+			each.add(new Flow("z", "x", 5));
+			each.add(new Flow("x", "p", 1));
+			each.add(new Flow("y", "q", 1));
+			each.add(new Flow("z", "r", 1));
+		}
+		
+		netter.setListener(new NettingListener() {
+			@Override
+			public void roundCompleted(int round, int flowCount, long totalValue) {
+				netter.cancel();
+			}
+		});
+		netter.net();
+		Assert.assertTrue(netter.getStats().isStoppedEarly());
+		
+		netter.setListener(new NettingListener() { });
+		List<String> flows = toStrings(netter.net());
+		List<String> expected = toStrings(uninterrupted.net());
+		
+		flows.sort(null);
+		expected.sort(null);
+		
+		assertEquals(Arrays.asList("x -> p 1", "y -> q 1", "z -> r 1"), expected);
+		assertEquals(expected, flows);
+	}
+
+	@Test
+	public void netAgainAfterCancellingBetweenPhases() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("c", "a", 10));
+
+		// Netting between parties changes nothing here, so no entity is
+		// dirty when the round stops after it
+		netter.setListener(new NettingListener() {
+			@Override
+			public void phaseCompleted(NettingPhase phase, long nanos, int edgesRemoved, long valueCompressed) {
+				if (phase == NettingPhase.NET_BETWEEN_PARTIES) {
+					netter.cancel();
+				}
+			}
+		});
+		assertEquals(3, netter.net().size());
+		Assert.assertTrue(netter.getStats().isStoppedEarly());
+
+		netter.setListener(new NettingListener() { });
+
+		assertEquals(0, netter.net().size());
+		Assert.assertFalse(netter.getStats().isStoppedEarly());
+	}
+	
+	@Test
+	public void netInBatchesKeepsNets() {
+		Random random = new Random(5);
+		Netter atOnce = new Netter();
+		
+		for (int batch = 0; batch < 10; batch++) {
+			for (int i = 0; i < 200; i++) {
+				Flow flow = new Flow("e" + random.nextInt(50), "e" + random.nextInt(50), 1 + random.nextInt(100));
+				netter.add(flow);
+				atOnce.add(flow);
+			}
+		
+			netter.net();
+		
+			assertEquals(atOnce.getNets(), netter.getNets());
+		}
+		
+		// A cycle among new entities is cancelled as usual
+		int flowsBefore = netter.net().size();
+		
+		netter.add(new Flow("x", "y", 10));
+		netter.add(new Flow("y", "z", 10));
+		netter.add(new Flow("z", "x", 10));
+		
+		assertEquals(flowsBefore, netter.net().size());
+	}
+
+	@Test(timeout = 10000)
+	public void largeNetZeroHub() {
+		for (int i = 0; i < 5000; i++) {
+			netter.add(new Flow("in" + i, "hub", i + 1));
+			netter.add(new Flow("hub", "out" + (4999 - i), 5000 - i));
+		}
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(5000, flows.size());
+		verifyHas(flows, new Flow("in0", "out0", 1));
+		verifyHas(flows, new Flow("in4999", "out4999", 5000));
+	}
+	
+	@Test
+	public void minCostFlowRemovesMoreValue() {
+		netter.setStrategy(new MinCostFlowNettingStrategy());
+		
+		netter.add(new Flow("a", "b", 20));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("c", "d", 8));
+		netter.add(new Flow("d", "e", 9));
+		netter.add(new Flow("e", "a", 10));
+		netter.add(new Flow("b", "f", 20));
+		netter.add(new Flow("f", "g", 20)); 
+		netter.add(new Flow("g", "a", 21));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(30, flows.stream().mapToLong(Flow::getValue).sum());
+		verifyHas(flows, new Flow("b", "c", 2));
+		verifyHas(flows, new Flow("g", "a", 9));
+	}
+	
+	@Test
+	public void minCostFlowCircularDependency() {
+		netter.setStrategy(new MinCostFlowNettingStrategy());
+		
+		circularDependency();
+	}
+	
+	@Test
+	public void minCostFlowNetBetweenParties() {
+		netter.setStrategy(new MinCostFlowNettingStrategy());
+		
+		netBetweenPartiesNonZero();
+	}
+	
+	@Test
+	public void settlementLargestDebtorPaysLargestCreditor() {
+		netter.setStrategy(new SettlementNettingStrategy());
+		
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 5));
+		netter.add(new Flow("d", "c", 3));
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(3, flows.size());
+		verifyHas(flows, new Flow("a", "c", 8));
+		verifyHas(flows, new Flow("a", "b", 2));
+		verifyHas(flows, new Flow("d", "b", 3));
+	}
+	
+	@Test
+	public void settlementCircularDependency() {
+		netter.setStrategy(new SettlementNettingStrategy());
+		
+		circularDependency();
+	}
+	
+	@Test
+	public void strategyFromOutsideThePackage() {
+		// Pays each net value to or from the first entity
+		netter.setStrategy((flowCollection, context) ->
+			context.runPhase(NettingPhase.SETTLEMENT, () -> {
+				int entityCount = flowCollection.getEntities().size();
+				long[] balances = new long[entityCount];
+				
+				for (int entity = 0; entity < entityCount; entity++) {
+					balances[entity] = flowCollection.getBalance(entity);
+				}
+				
+				for (int flow = flowCollection.nextFlow(-1); flow != -1; flow = flowCollection.nextFlow(flow)) {
+					flowCollection.remove(flow);
+				}
+				
+				for (int entity = 1; entity < entityCount; entity++) {
+					if (balances[entity] > 0) {
+						flowCollection.add(0, entity, balances[entity]);
+					} else if (balances[entity] < 0) {
+						flowCollection.add(entity, 0, -balances[entity]);
+					}
+				}
+			}));
+		
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 4));
+		netter.add(new Flow("c", "d", 3));
+		
+		Map<String, Long> netBefore = netter.getNets();
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(netBefore, netter.getNets());
+		assertEquals(3, flows.size());
+		verifyHas(flows, new Flow("a", "b", 6));
+		verifyHas(flows, new Flow("a", "c", 1));
+		verifyHas(flows, new Flow("a", "d", 3));
+	}
+	
+	@Test
+	public void statsRecordedForCircularDependency() {
+		circularDependency();
+		
+		NettingStats stats = netter.getStats();
+		
+		assertEquals(4, stats.getFlowsBefore());
+		assertEquals(0, stats.getFlowsAfter());
+		assertEquals(40, stats.getValueBefore());
+		assertEquals(0, stats.getValueAfter());
+		assertEquals(4, stats.getEdgesRemoved(NettingPhase.REMOVE_CIRCULAR_FLOW));
+		assertEquals(40, stats.getValueCompressed(NettingPhase.REMOVE_CIRCULAR_FLOW));
+		assertEquals(stats.getRounds(), stats.getInvocations(NettingPhase.NET_BETWEEN_PARTIES));
+	}
+	
+	@Test
+	public void listenerNotifiedOfEachPhase() {
+		List<NettingPhase> phases = new ArrayList<>();
+		List<NettingStats> completed = new ArrayList<>();
+		
+		netter.setListener(new NettingListener() {
+			@Override
+			public void phaseCompleted(NettingPhase phase, long nanos, int edgesRemoved, long valueCompressed) {
+				phases.add(phase);
+			}
+			
+			@Override
+			public void nettingCompleted(NettingStats stats) {
+				completed.add(stats);
+			}
+		});
+		netter.setStrategy(new MinCostFlowNettingStrategy());
+		
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 5));
+		netter.net();
+		
+		assertEquals(Arrays.asList(NettingPhase.MIN_COST_FLOW), phases);
+		assertEquals(1, completed.size());
+		assertEquals(netter.getStats(), completed.get(0));
+	}
+	
+	private void setBatched() {
+		HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+		strategy.setBatched(true);
+		netter.setStrategy(strategy);
+	}
+	
+	private List<String> toStrings(List<Flow> flows) {
+		List<String> strings = new ArrayList<>();
+		
+		for (Flow flow : flows) {
+			strings.add(flow.getSource() + " -> " + flow.getSink() + " " + flow.getValue());
+		}
+		
+		return strings;
+	}
+	
 	private void verifyHas(List<Flow> flows, Flow flow) {
 		for (Flow existingFlow : flows) {
 			if (flow.getSink().equals(existingFlow.getSink()) &&
@@ -0,0 +1,159 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flownetter.ComponentCache;
+import flownetter.Flow;
+import flownetter.HeuristicNettingStrategy;
+import flownetter.Netter;
+import flownetter.ParallelNetter;
+
+
+public class ParallelNetterTest {
+
+	private ParallelNetter netter;
+
+	@Before
+	public void before() {
+		netter = new ParallelNetter();
+	}
+	
+	@Test
+	public void componentsNettedSeparately() {
+		// Component 1
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("c", "a", 10));
+		
+		// Component 2
+		netter.add(new Flow("x", "y", 5));
+		netter.add(new Flow("y", "z", 5));
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("x", "z", 5));
+	}
+
+	@Test
+	public void flowsLinkingComponentsAfterwardsJoinThem() {
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("x", "y", 10));
+		netter.add(new Flow("b", "x", 10));
+		
+		List<Flow> flows = netter.net();
+		
+		assertEquals(1, flows.size());
+		verifyHas(flows, new Flow("a", "y", 10));
+	}
+
+	@Test
+	public void manyComponentsKeepNets() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		
+		try {
+			netter = new ParallelNetter(pool, () -> {
+				HeuristicNettingStrategy strategy = new HeuristicNettingStrategy();
+				strategy.setBatched(true);
+			
+				Netter componentNetter = new Netter();
+				componentNetter.setStrategy(strategy);
+				return componentNetter;
+			});
+			
+			for (int i = 0; i < 1000; i++) {
+				netter.add(new Flow("a" + i, "b" + i, 10));
+				netter.add(new Flow("b" + i, "c" + i, 7));
+				netter.add(new Flow("c" + i, "a" + i, 3));
+			}
+			
+			Map<String, Long> netBefore = netter.getNets();
+			
+			List<Flow> flows = netter.net();
+			
+			assertEquals(netBefore, netter.getNets());
+			assertEquals(2000, flows.size());
+			assertEquals(new Flow("a0", "b0", 7).toString(), flows.get(0).toString());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void cachedComponentsNotNettedAgain() {
+		ComponentCache cache = new ComponentCache(1000);
+		AtomicInteger nettings = new AtomicInteger();
+		
+		Supplier<ParallelNetter> factory = () -> {
+			ParallelNetter parallelNetter = new ParallelNetter(ForkJoinPool.commonPool(), () -> {
+				nettings.incrementAndGet();
+				return new Netter();
+			});
+			parallelNetter.setCache(cache);
+			return parallelNetter;
+		};
+		
+		netter = factory.get();
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("x", "y", 5));
+		netter.add(new Flow("y", "z", 5));
+		
+		List<Flow> first = netter.net();
+		
+		// The same components with the flows in another order, and a new one
+		netter = factory.get();
+		netter.add(new Flow("y", "z", 5));
+		netter.add(new Flow("b", "c", 10));
+		netter.add(new Flow("x", "y", 5));
+		netter.add(new Flow("a", "b", 10));
+		netter.add(new Flow("p", "q", 1));
+		
+		List<Flow> second = netter.net();
+		
+		assertEquals(3, nettings.get());
+		assertEquals(2, cache.getHits());
+		assertEquals(3, second.size());
+		verifyHas(second, first.get(0));
+		verifyHas(second, first.get(1));
+		verifyHas(second, new Flow("p", "q", 1));
+	}
+	
+	@Test
+	public void leastRecentlyUsedComponentsEvicted() {
+		ComponentCache cache = new ComponentCache(6);
+		
+		for (String entity : new String[] { "a", "b", "c", "a" }) {
+			netter = new ParallelNetter();
+			netter.setCache(cache);
+			netter.add(new Flow(entity + "1", entity + "2", 1));
+			netter.add(new Flow(entity + "2", entity + "3", 1));
+			netter.net();
+		}
+		
+		// Each component takes three flows, so a was evicted when c was added
+		assertEquals(0, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+	
+	private void verifyHas(List<Flow> flows, Flow flow) {
+		for (Flow existingFlow : flows) {
+			if (flow.getSink().equals(existingFlow.getSink()) &&
+				flow.getSource().equals(existingFlow.getSource()) &&
+				flow.getValue() == existingFlow.getValue()) {
+				
+				return;
+			}
+		}
+		Assert.fail("No such flow");
+	}
+
+}